@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.kth.iv1351.bankjdbc.controller.Controller;
+import se.kth.iv1351.bankjdbc.integration.BankDAO;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+
+/**
+ * Measures the throughput of the controller's operations, including the
+ * database calls they make. Run with <code>-t</code> to measure contention
+ * between threads. Each benchmark is run with both lock modes, see
+ * <code>bankdb.lockMode</code> in <code>Controller</code>, which matter to
+ * transfers. Few accounts, for example <code>-p accountCount=10</code>, make
+ * transfers collide often.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ControllerBenchmark {
+    @Param("1000")
+    private int accountCount;
+    @Param({"pessimistic", "optimistic"})
+    private String lockMode;
+    private Controller ctrl;
+    private String[] acctNos;
+
+    /**
+     * Starts the database and creates the accounts used by the benchmarks.
+     *
+     * @throws Exception If unable to start or fill the database.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        EmbeddedBankDb.start();
+        acctNos = EmbeddedBankDb.seedAccounts(new BankDAO(), accountCount);
+        System.setProperty("bankdb.lockMode", lockMode);
+        ctrl = new Controller();
+    }
+
+    /**
+     * @throws Exception If the operation fails.
+     */
+    @Benchmark
+    public void createAccount() throws Exception {
+        ctrl.createAccount(EmbeddedBankDb.holderName(ThreadLocalRandom.current().nextInt()));
+    }
+
+    /**
+     * @return The found account.
+     * @throws Exception If the operation fails.
+     */
+    @Benchmark
+    public AccountDTO getAccount() throws Exception {
+        return ctrl.getAccount(randomAcctNo());
+    }
+
+    /**
+     * @throws Exception If the operation fails.
+     */
+    @Benchmark
+    public void deposit() throws Exception {
+        ctrl.deposit(randomAcctNo(), 1);
+    }
+
+    /**
+     * @throws Exception If the operation fails.
+     */
+    @Benchmark
+    public void withdraw() throws Exception {
+        ctrl.withdraw(randomAcctNo(), 1);
+    }
+
+    /**
+     * @throws Exception If the operation fails.
+     */
+    @Benchmark
+    public void transfer() throws Exception {
+        String fromAcctNo = randomAcctNo();
+        String toAcctNo = randomAcctNo();
+        if (!fromAcctNo.equals(toAcctNo)) {
+            ctrl.transfer(fromAcctNo, toAcctNo, 1);
+        }
+    }
+
+    private String randomAcctNo() {
+        return acctNos[ThreadLocalRandom.current().nextInt(acctNos.length)];
+    }
+}
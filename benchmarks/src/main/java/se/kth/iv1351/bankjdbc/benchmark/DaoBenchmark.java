@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import se.kth.iv1351.bankjdbc.integration.BankDAO;
+import se.kth.iv1351.bankjdbc.model.Account;
+
+/**
+ * Measures the throughput of the DAO's database calls.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+    @Param("1000")
+    private int accountCount;
+    private BankDAO dao;
+    private String[] acctNos;
+    private final AtomicLong holderSequence = new AtomicLong();
+
+    /**
+     * Starts the database and creates the accounts used by the benchmarks.
+     *
+     * @throws Exception If unable to start or fill the database.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        EmbeddedBankDb.start();
+        dao = new BankDAO();
+        acctNos = EmbeddedBankDb.seedAccounts(dao, accountCount);
+    }
+
+    /**
+     * An account that is created before each invocation, so that it can be
+     * deleted by the benchmark.
+     */
+    @State(Scope.Thread)
+    public static class NewAccount {
+        private String acctNo;
+
+        /**
+         * Creates the account, for a holder that has no other accounts.
+         *
+         * @param bench The benchmark's state.
+         * @throws Exception If unable to create the account.
+         */
+        @Setup(Level.Invocation)
+        public void create(DaoBenchmark bench) throws Exception {
+            String holderName = "deleted" + bench.holderSequence.incrementAndGet();
+            bench.dao.createAccount(new Account(holderName));
+            List<Account> accounts = bench.dao.findAccountsByHolder(holderName);
+            acctNo = accounts.get(0).getAccountNo();
+        }
+    }
+
+    /**
+     * @throws Exception If the database call fails.
+     */
+    @Benchmark
+    public void createAccount() throws Exception {
+        dao.createAccount(new Account(EmbeddedBankDb.holderName(
+                ThreadLocalRandom.current().nextInt())));
+    }
+
+    /**
+     * @return The found account.
+     * @throws Exception If the database call fails.
+     */
+    @Benchmark
+    public Account findAccountByAcctNo() throws Exception {
+        return dao.findAccountByAcctNo(randomAcctNo(), false);
+    }
+
+    /**
+     * @return The found account.
+     * @throws Exception If the database call fails.
+     */
+    @Benchmark
+    public Account findAccountByAcctNoLocking() throws Exception {
+        Account acct = dao.findAccountByAcctNo(randomAcctNo(), true);
+        dao.commit();
+        return acct;
+    }
+
+    /**
+     * @return All accounts.
+     * @throws Exception If the database call fails.
+     */
+    @Benchmark
+    public List<Account> findAllAccounts() throws Exception {
+        return dao.findAllAccounts();
+    }
+
+    /**
+     * @param blackhole Consumes the streamed accounts.
+     * @throws Exception If the database call fails.
+     */
+    @Benchmark
+    public void findAllAccountsStreaming(Blackhole blackhole) throws Exception {
+        dao.findAllAccounts(blackhole::consume);
+    }
+
+    /**
+     * @param account The account to delete.
+     * @throws Exception If the database call fails.
+     */
+    @Benchmark
+    public void deleteAccount(NewAccount account) throws Exception {
+        dao.deleteAccount(account.acctNo);
+    }
+
+    private String randomAcctNo() {
+        return acctNos[ThreadLocalRandom.current().nextInt(acctNos.length)];
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import se.kth.iv1351.bankjdbc.integration.BankDAO;
+import se.kth.iv1351.bankjdbc.integration.BankDBException;
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+
+/**
+ * Provides the database used by the benchmarks. Unless the system property
+ * <code>bankdb.url</code> is set, an embedded PostgreSQL server is started, and
+ * the <code>bankdb.*</code> system properties are set to point the bank DAO at
+ * it. The server is started at most once per JVM, and is stopped when the JVM
+ * exits. Since JMH forks a new JVM for each benchmark, each benchmark gets an
+ * empty database.
+ */
+final class EmbeddedBankDb {
+    private static final int HOLDER_COUNT = 100;
+    private static final int INITIAL_BALANCE = 1_000_000_000;
+    private static EmbeddedPostgres postgres;
+
+    private EmbeddedBankDb() {
+    }
+
+    /**
+     * Starts the embedded database, unless it is already started or an external
+     * database is specified.
+     *
+     * @throws IOException If unable to start the database.
+     */
+    static synchronized void start() throws IOException {
+        if (postgres != null || System.getProperty("bankdb.url") != null) {
+            return;
+        }
+        postgres = EmbeddedPostgres.builder().start();
+        System.setProperty("bankdb.url", postgres.getJdbcUrl("postgres", "postgres"));
+        System.setProperty("bankdb.user", "postgres");
+        System.setProperty("bankdb.password", "postgres");
+        if (System.getProperty("bankdb.pool.maxSize") == null) {
+            System.setProperty("bankdb.pool.maxSize", "64");
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(EmbeddedBankDb::stop));
+    }
+
+    /**
+     * Creates the specified number of accounts, spread over a fixed number of
+     * holders, each with a balance large enough to never be overdrawn by the
+     * benchmarks.
+     *
+     * @param dao          The DAO used to create the accounts.
+     * @param accountCount The number of accounts to create.
+     * @return The numbers of all accounts in the database.
+     * @throws BankDBException If unable to create the accounts.
+     */
+    static String[] seedAccounts(BankDAO dao, int accountCount) throws BankDBException {
+        for (int i = 0; i < accountCount; i++) {
+            dao.createAccount(new Account(holderName(i), INITIAL_BALANCE));
+        }
+        List<String> acctNos = new ArrayList<>();
+        for (AccountDTO acct : dao.findAllAccounts()) {
+            acctNos.add(acct.getAccountNo());
+        }
+        return acctNos.toArray(new String[0]);
+    }
+
+    /**
+     * @param index Any number.
+     * @return The name of one of the holders created by <code>seedAccounts</code>.
+     */
+    static String holderName(int index) {
+        return "holder" + (index % HOLDER_COUNT);
+    }
+
+    private static void stop() {
+        try {
+            postgres.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.AccountNumberFormat;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
+
+/**
+ * Measures the model's in-memory operations, no database is used.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ModelBenchmark {
+    private final Account account = new Account("10000008", "holder", 0);
+    private final String acctNo = "10000008";
+
+    /**
+     * @return The updated balance.
+     * @throws RejectedException Never.
+     */
+    @Benchmark
+    public int depositAndWithdraw() throws RejectedException {
+        account.deposit(10);
+        account.withdraw(10);
+        return account.getBalance();
+    }
+
+    /**
+     * @return The rejection.
+     */
+    @Benchmark
+    public RejectedException rejectedWithdrawal() {
+        try {
+            account.withdraw(Integer.MAX_VALUE);
+            return null;
+        } catch (RejectedException re) {
+            return re;
+        }
+    }
+
+    /**
+     * @return The string representation of an account.
+     */
+    @Benchmark
+    public String accountToString() {
+        return account.toString();
+    }
+
+    /**
+     * @return <code>true</code>.
+     */
+    @Benchmark
+    public boolean validateAcctNo() {
+        return AccountNumberFormat.isValid(acctNo);
+    }
+}
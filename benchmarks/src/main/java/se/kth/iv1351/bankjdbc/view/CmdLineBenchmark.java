@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.view;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parsing of user input. This class is in the view package, since
+ * <code>CmdLine</code> is package private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CmdLineBenchmark {
+    private final String depositLine = "deposit 10000008 100";
+    private final String spacedLine = "  transfer   10000008    10000016   100  ";
+    private final String illegalLine = "no such command";
+
+    /**
+     * @param blackhole Consumes the parsed parts.
+     */
+    @Benchmark
+    public void parseDeposit(Blackhole blackhole) {
+        CmdLine cmdLine = new CmdLine(depositLine);
+        blackhole.consume(cmdLine.getCmd());
+        blackhole.consume(cmdLine.getParameter(0));
+        blackhole.consume(cmdLine.getParameter(1));
+    }
+
+    /**
+     * @param blackhole Consumes the parsed parts.
+     */
+    @Benchmark
+    public void parseWithExtraSpaces(Blackhole blackhole) {
+        CmdLine cmdLine = new CmdLine(spacedLine);
+        blackhole.consume(cmdLine.getCmd());
+        blackhole.consume(cmdLine.getParameter(2));
+    }
+
+    /**
+     * @return The parsed line.
+     */
+    @Benchmark
+    public CmdLine parseIllegal() {
+        return new CmdLine(illegalLine);
+    }
+}
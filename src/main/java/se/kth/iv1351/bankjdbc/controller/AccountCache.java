@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+
+/**
+ * A bounded cache of accounts, keyed by account number. When the cache is full,
+ * the least recently used account is evicted. Cached accounts expire after a
+ * configurable time to live. A capacity of zero disables the cache.
+ * <p>
+ * An account read from the database must be stored with the stamp returned by
+ * <code>readStamp</code> before the read. If the account was invalidated after
+ * the stamp was taken, the read might have returned a balance that is already
+ * overwritten, and the account is not stored. Thereby, the cache never returns
+ * a balance older than the last write that invalidated it.
+ * <p>
+ * The cache is split in segments with separate locks, to reduce contention.
+ * This class is thread safe.
+ */
+public class AccountCache {
+    private static final int SEGMENT_COUNT = 16;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity  The maximum number of cached accounts, zero disables the
+     *                  cache.
+     * @param ttlMillis The time, in milliseconds, an account stays in the cache.
+     */
+    public AccountCache(int capacity, long ttlMillis) {
+        this.enabled = capacity > 0;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        int segmentCapacity = Math.max(1, (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Returns the cached account with the specified number.
+     *
+     * @param acctNo The account number.
+     * @return The cached account, or <code>null</code> if it is not cached.
+     */
+    public AccountDTO get(String acctNo) {
+        if (!enabled) {
+            return null;
+        }
+        AccountDTO acct = segmentFor(acctNo).get(acctNo);
+        if (acct == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return acct;
+    }
+
+    /**
+     * Returns a stamp that shall be passed to <code>put</code> when storing the
+     * account with the specified number. The stamp must be taken before the
+     * account is read from the database.
+     *
+     * @param acctNo The account number.
+     * @return The stamp.
+     */
+    public long readStamp(String acctNo) {
+        return segmentFor(acctNo).readStamp();
+    }
+
+    /**
+     * Stores the specified account, unless an account in the same segment was
+     * invalidated after the specified stamp was taken.
+     *
+     * @param acct  The account to store.
+     * @param stamp The stamp returned by <code>readStamp</code> before the account
+     *              was read.
+     */
+    public void put(AccountDTO acct, long stamp) {
+        if (!enabled) {
+            return;
+        }
+        segmentFor(acct.getAccountNo()).put(acct, stamp);
+    }
+
+    /**
+     * Removes the account with the specified number. Must be called after each
+     * committed change to the account.
+     *
+     * @param acctNo The account number.
+     */
+    public void invalidate(String acctNo) {
+        if (acctNo == null) {
+            return;
+        }
+        segmentFor(acctNo).invalidate(acctNo);
+    }
+
+    /**
+     * @return <code>true</code> if the cache is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The number of lookups that found a cached account.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return The number of lookups that did not find a cached account.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return The number of accounts evicted because the cache was full, or
+     *         because they had expired.
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return The number of cached accounts.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return A string representation of the cache statistics.
+     */
+    @Override
+    public String toString() {
+        return "AccountCache: [enabled: " + enabled + ", size: " + size()
+               + ", hits: " + getHitCount() + ", misses: " + getMissCount()
+               + ", evictions: " + getEvictionCount() + "]";
+    }
+
+    private Segment segmentFor(String acctNo) {
+        return segments[(acctNo.hashCode() & Integer.MAX_VALUE) % SEGMENT_COUNT];
+    }
+
+    private static class CacheEntry {
+        private final AccountDTO acct;
+        private final long expiresAt;
+
+        private CacheEntry(AccountDTO acct, long expiresAt) {
+            this.acct = acct;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private class Segment {
+        private final Map<String, CacheEntry> entries;
+        private long invalidationCount = 0;
+
+        private Segment(int capacity) {
+            entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+                    evictionCount.increment();
+                    return true;
+                }
+            };
+        }
+
+        private synchronized AccountDTO get(String acctNo) {
+            CacheEntry entry = entries.get(acctNo);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.expiresAt > 0) {
+                entries.remove(acctNo);
+                evictionCount.increment();
+                return null;
+            }
+            return entry.acct;
+        }
+
+        private synchronized long readStamp() {
+            return invalidationCount;
+        }
+
+        private synchronized void put(AccountDTO acct, long stamp) {
+            if (stamp != invalidationCount) {
+                return;
+            }
+            entries.put(acct.getAccountNo(), new CacheEntry(acct, System.nanoTime() + ttlNanos));
+        }
+
+        private synchronized void invalidate(String acctNo) {
+            invalidationCount++;
+            entries.remove(acctNo);
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+}
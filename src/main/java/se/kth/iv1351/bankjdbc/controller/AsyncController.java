@@ -0,0 +1,270 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.controller;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.kth.iv1351.bankjdbc.metrics.Counter;
+import se.kth.iv1351.bankjdbc.metrics.Metrics;
+import se.kth.iv1351.bankjdbc.metrics.OperationTimer;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.AccountPage;
+import se.kth.iv1351.bankjdbc.model.BankTotals;
+import se.kth.iv1351.bankjdbc.model.HolderSummary;
+import se.kth.iv1351.bankjdbc.model.ImportReport;
+import se.kth.iv1351.bankjdbc.model.LedgerReport;
+
+/**
+ * An asynchronous facade of <code>Controller</code>. Each method returns at
+ * once, with a future that is completed when the operation is finished. The
+ * operations are performed by a fixed number of threads, so any number of
+ * operations can be started without a thread each. The futures are completed
+ * exceptionally with the exceptions thrown by the corresponding
+ * <code>Controller</code> methods, for example <code>RejectedException</code>,
+ * and with any error thrown while performing an operation.
+ * <p>
+ * Operations that can not be started at once wait in a bounded queue. When the
+ * queue is full, which means the database can not keep up, new operations are
+ * not queued, instead their futures are completed exceptionally with
+ * <code>RejectedExecutionException</code>. A caller that gets that exception
+ * should wait before it tries again. The number of such rejections, and the
+ * time operations wait in the queue, are published over JMX, see
+ * <code>Metrics</code>. This class is thread safe.
+ */
+public class AsyncController implements AutoCloseable {
+    private static final String METRICS_TYPE = "AsyncController";
+    private final OperationTimer queueWaitTimer = Metrics.timer(METRICS_TYPE, "queueWait");
+    private final Counter rejectionCounter = Metrics.counter(METRICS_TYPE, "rejections");
+    private final Controller controller;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a new instance, which calls the specified controller. The
+     * operations are performed by <code>bankdb.async.threads</code> threads,
+     * default 10, which is the default size of the connection pool. At most
+     * <code>bankdb.async.queueSize</code> operations, default 1000, wait for a
+     * thread.
+     *
+     * @param controller The controller that performs the operations.
+     */
+    public AsyncController(Controller controller) {
+        int threads = Integer.getInteger("bankdb.async.threads", 10);
+        int queueSize = Integer.getInteger("bankdb.async.queueSize", 1000);
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Illegal async settings, threads: " + threads
+                                               + ", queue size: " + queueSize);
+        }
+        this.controller = controller;
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), task -> {
+                    Thread worker = new Thread(task,
+                            "async-controller-" + threadCount.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                });
+    }
+
+    /**
+     * @see Controller#createAccount(String)
+     */
+    public CompletableFuture<Void> createAccountAsync(String holderName) {
+        return submit(() -> {
+            controller.createAccount(holderName);
+            return null;
+        });
+    }
+
+    /**
+     * @see Controller#importAccounts(String, int)
+     */
+    public CompletableFuture<ImportReport> importAccountsAsync(String fileName, int chunkSize) {
+        return submit(() -> controller.importAccounts(fileName, chunkSize));
+    }
+
+    /**
+     * @see Controller#getAllAccounts()
+     */
+    public CompletableFuture<List<? extends AccountDTO>> getAllAccountsAsync() {
+        return submit(controller::getAllAccounts);
+    }
+
+    /**
+     * @see Controller#exportAccounts(String, String)
+     */
+    public CompletableFuture<Long> exportAccountsAsync(String fileName, String format) {
+        return submit(() -> controller.exportAccounts(fileName, format));
+    }
+
+    /**
+     * @see Controller#getTotals()
+     */
+    public CompletableFuture<BankTotals> getTotalsAsync() {
+        return submit(controller::getTotals);
+    }
+
+    /**
+     * @see Controller#getHolderSummaries(int)
+     */
+    public CompletableFuture<List<HolderSummary>> getHolderSummariesAsync(int limit) {
+        return submit(() -> controller.getHolderSummaries(limit));
+    }
+
+    /**
+     * @see Controller#getTopAccounts(int)
+     */
+    public CompletableFuture<List<? extends AccountDTO>> getTopAccountsAsync(int limit) {
+        return submit(() -> controller.getTopAccounts(limit));
+    }
+
+    /**
+     * @see Controller#getAccountsForHolder(String)
+     */
+    public CompletableFuture<List<? extends AccountDTO>> getAccountsForHolderAsync(
+            String holderName) {
+        return submit(() -> controller.getAccountsForHolder(holderName));
+    }
+
+    /**
+     * @see Controller#getAccountsPage(int, String)
+     */
+    public CompletableFuture<AccountPage> getAccountsPageAsync(int pageSize, String after) {
+        return submit(() -> controller.getAccountsPage(pageSize, after));
+    }
+
+    /**
+     * @see Controller#getAccountsForHolderPage(String, int, String)
+     */
+    public CompletableFuture<AccountPage> getAccountsForHolderPageAsync(String holderName,
+                                                                        int pageSize,
+                                                                        String after) {
+        return submit(() -> controller.getAccountsForHolderPage(holderName, pageSize, after));
+    }
+
+    /**
+     * @see Controller#getAccount(String)
+     */
+    public CompletableFuture<AccountDTO> getAccountAsync(String acctNo) {
+        return submit(() -> controller.getAccount(acctNo));
+    }
+
+    /**
+     * @see Controller#deposit(String, int)
+     */
+    public CompletableFuture<Void> depositAsync(String acctNo, int amt) {
+        return submit(() -> {
+            controller.deposit(acctNo, amt);
+            return null;
+        });
+    }
+
+    /**
+     * @see Controller#withdraw(String, int)
+     */
+    public CompletableFuture<Void> withdrawAsync(String acctNo, int amt) {
+        return submit(() -> {
+            controller.withdraw(acctNo, amt);
+            return null;
+        });
+    }
+
+    /**
+     * @see Controller#transfer(String, String, int)
+     */
+    public CompletableFuture<Void> transferAsync(String fromAcctNo, String toAcctNo, int amt) {
+        return submit(() -> {
+            controller.transfer(fromAcctNo, toAcctNo, amt);
+            return null;
+        });
+    }
+
+    /**
+     * @see Controller#applyLedger(String, int)
+     */
+    public CompletableFuture<LedgerReport> applyLedgerAsync(String fileName, int chunkSize) {
+        return submit(() -> controller.applyLedger(fileName, chunkSize));
+    }
+
+    /**
+     * @see Controller#deleteAccount(String)
+     */
+    public CompletableFuture<Void> deleteAccountAsync(String acctNo) {
+        return submit(() -> {
+            controller.deleteAccount(acctNo);
+            return null;
+        });
+    }
+
+    /**
+     * @return The number of operations waiting for a thread.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting new operations. Operations that are already queued are
+     * still performed, new operations are rejected.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Operation<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                queueWaitTimer.record(submitted);
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(operation.perform());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            rejectionCounter.increment();
+            result.completeExceptionally(ree);
+        }
+        return result;
+    }
+
+    /**
+     * A call to a <code>Controller</code> method.
+     */
+    @FunctionalInterface
+    private interface Operation<T> {
+        T perform() throws Exception;
+    }
+}
@@ -24,13 +24,35 @@
 package se.kth.iv1351.bankjdbc.controller;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
+import se.kth.iv1351.bankjdbc.integration.AccountFileReader;
+import se.kth.iv1351.bankjdbc.integration.AccountFileWriter;
 import se.kth.iv1351.bankjdbc.integration.BankDAO;
 import se.kth.iv1351.bankjdbc.integration.BankDBException;
+import se.kth.iv1351.bankjdbc.integration.BankStorage;
+import se.kth.iv1351.bankjdbc.integration.InMemoryBankStorage;
+import se.kth.iv1351.bankjdbc.integration.LedgerFileReader;
+import se.kth.iv1351.bankjdbc.metrics.Counter;
+import se.kth.iv1351.bankjdbc.metrics.Metrics;
+import se.kth.iv1351.bankjdbc.metrics.OperationTimer;
 import se.kth.iv1351.bankjdbc.model.Account;
 import se.kth.iv1351.bankjdbc.model.AccountDTO;
 import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.model.AccountNumberFormat;
+import se.kth.iv1351.bankjdbc.model.AccountPage;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+import se.kth.iv1351.bankjdbc.model.BankTotals;
+import se.kth.iv1351.bankjdbc.model.HolderSummary;
+import se.kth.iv1351.bankjdbc.model.ImportReport;
+import se.kth.iv1351.bankjdbc.model.LedgerReport;
 import se.kth.iv1351.bankjdbc.model.RejectedException;
 
 /**
@@ -38,17 +60,131 @@ import se.kth.iv1351.bankjdbc.model.RejectedException;
  * The controller is also responsible for calling the DAO. Typically, the
  * controller first calls the DAO to retrieve data (if needed), then operates on
  * the data, and finally tells the DAO to store the updated data (if any).
+ * <p>
+ * The duration of each public method, the number of rejected overdraft
+ * attempts, and the number of optimistic transfers that had to be retried, are
+ * published over JMX, see <code>Metrics</code>.
  */
 public class Controller {
-    private final BankDAO bankDb;
+    private static final String METRICS_TYPE = "Controller";
+    private static final long MIN_TRANSFER_BACKOFF_MICROS = 50;
+    private static final long MAX_TRANSFER_BACKOFF_MICROS = 5000;
+    private final OperationTimer createAccountTimer = Metrics.timer(METRICS_TYPE, "createAccount");
+    private final OperationTimer importAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "importAccounts");
+    private final OperationTimer getAllAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "getAllAccounts");
+    private final OperationTimer forEachAccountTimer =
+            Metrics.timer(METRICS_TYPE, "forEachAccount");
+    private final OperationTimer exportAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "exportAccounts");
+    private final OperationTimer getTotalsTimer = Metrics.timer(METRICS_TYPE, "getTotals");
+    private final OperationTimer getHolderSummariesTimer =
+            Metrics.timer(METRICS_TYPE, "getHolderSummaries");
+    private final OperationTimer getTopAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "getTopAccounts");
+    private final OperationTimer getAccountsForHolderTimer =
+            Metrics.timer(METRICS_TYPE, "getAccountsForHolder");
+    private final OperationTimer getAccountsPageTimer =
+            Metrics.timer(METRICS_TYPE, "getAccountsPage");
+    private final OperationTimer getAccountsForHolderPageTimer =
+            Metrics.timer(METRICS_TYPE, "getAccountsForHolderPage");
+    private final OperationTimer getAccountTimer = Metrics.timer(METRICS_TYPE, "getAccount");
+    private final OperationTimer depositTimer = Metrics.timer(METRICS_TYPE, "deposit");
+    private final OperationTimer withdrawTimer = Metrics.timer(METRICS_TYPE, "withdraw");
+    private final OperationTimer applyBalanceChangesTimer =
+            Metrics.timer(METRICS_TYPE, "applyBalanceChanges");
+    private final OperationTimer transferTimer = Metrics.timer(METRICS_TYPE, "transfer");
+    private final OperationTimer applyLedgerTimer = Metrics.timer(METRICS_TYPE, "applyLedger");
+    private final OperationTimer deleteAccountTimer = Metrics.timer(METRICS_TYPE, "deleteAccount");
+    private final Counter overdraftCounter = Metrics.counter(METRICS_TYPE, "overdrafts");
+    private final Counter transferConflictCounter =
+            Metrics.counter(METRICS_TYPE, "transferConflicts");
+    private final BankStorage bankDb;
+    private final AccountCache accountCache;
+    private final boolean validateCheckDigit;
+    private final GroupCommitter groupCommitter;
+    private final boolean optimisticTransfers;
+    private final int maxTransferRetries;
 
     /**
-     * Creates a new instance, and retrieves a connection to the database.
+     * Creates a new instance, and retrieves a connection to the database. Accounts
+     * read by <code>getAccount</code> are cached if the system property
+     * <code>bankdb.cache.size</code> is larger than zero. They then stay in the
+     * cache for at most <code>bankdb.cache.ttlMillis</code> milliseconds.
+     * Account numbers without a correct check digit are rejected if the system
+     * property <code>bankdb.acctNo.validate</code> is <code>true</code>. It is
+     * <code>false</code> by default, since accounts created before check digits
+     * were introduced mostly have numbers without a correct check digit.
+     * <p>
+     * If the system property <code>bankdb.groupCommit.windowMicros</code> is
+     * larger than zero, concurrent deposits and withdrawals are applied in
+     * groups, each group in one transaction. A group is applied when its first
+     * change has waited that many microseconds, or when it holds
+     * <code>bankdb.groupCommit.maxBatchSize</code> changes, default 100.
+     * <p>
+     * Transfers lock both accounts while they are checked and updated, unless
+     * the system property <code>bankdb.lockMode</code> is
+     * <code>optimistic</code>. Then the accounts are read without locks, and the
+     * transfer is retried if any of them was updated by someone else before the
+     * transfer was saved. After <code>bankdb.optimistic.maxRetries</code>
+     * retries, default 10, the accounts are locked.
+     * <p>
+     * The accounts are stored in the database, unless the system property
+     * <code>bankdb.engine</code> is <code>memory</code>. Then they are stored
+     * in this process' memory, see <code>InMemoryBankStorage</code>.
+     * <p>
+     * If the system property <code>bankdb.journal.dir</code> is set, each
+     * balance change is also appended to a journal in that directory, before it
+     * is committed, see <code>BankStorage</code>.
      * 
-     * @throws BankDBException If unable to connect to the database.
+     * @throws BankDBException If unable to connect to the database, to open the
+     *                         journal, or if the engine or lock mode is illegal.
      */
     public Controller() throws BankDBException {
-        bankDb = new BankDAO();
+        this(createStorage());
+    }
+
+    /**
+     * Creates a new instance, which stores the accounts in the specified
+     * storage. All system properties read by <code>Controller()</code>, except
+     * <code>bankdb.engine</code> and the journal's, which are read by the
+     * storage, are used also by this constructor.
+     *
+     * @param bankDb Where the accounts are stored.
+     * @throws BankDBException If the lock mode is illegal.
+     */
+    public Controller(BankStorage bankDb) throws BankDBException {
+        this.bankDb = bankDb;
+        accountCache = new AccountCache(Integer.getInteger("bankdb.cache.size", 0),
+                                        Long.getLong("bankdb.cache.ttlMillis", 60000));
+        validateCheckDigit = Boolean.getBoolean("bankdb.acctNo.validate");
+        long groupCommitWindowMicros = Long.getLong("bankdb.groupCommit.windowMicros", 0);
+        if (groupCommitWindowMicros > 0) {
+            groupCommitter = new GroupCommitter(this::applyBalanceChanges,
+                    TimeUnit.MICROSECONDS.toNanos(groupCommitWindowMicros),
+                    Integer.getInteger("bankdb.groupCommit.maxBatchSize", 100));
+        } else {
+            groupCommitter = null;
+        }
+        String lockMode = System.getProperty("bankdb.lockMode", "pessimistic");
+        if (!lockMode.equals("pessimistic") && !lockMode.equals("optimistic")) {
+            throw new BankDBException("Illegal value of bankdb.lockMode: " + lockMode);
+        }
+        optimisticTransfers = lockMode.equals("optimistic");
+        maxTransferRetries = Integer.getInteger("bankdb.optimistic.maxRetries", 10);
+    }
+
+    private static BankStorage createStorage() throws BankDBException {
+        String engine = System.getProperty("bankdb.engine", "jdbc");
+        switch (engine) {
+            case "jdbc":
+                return new BankDAO();
+            case "memory":
+                return new InMemoryBankStorage();
+            default:
+                throw new BankDBException("Illegal value of bankdb.engine: " + engine);
+        }
     }
 
     /**
@@ -58,17 +194,76 @@ public class Controller {
      * @throws AccountException If unable to create account.
      */
     public void createAccount(String holderName) throws AccountException {
-        String failureMsg = "Could not create account for: " + holderName;
+        long start = System.nanoTime();
+        try {
+            String failureMsg = "Could not create account for: " + holderName;
 
-        if (holderName == null) {
-            throw new AccountException(failureMsg);
+            if (holderName == null) {
+                throw new AccountException(failureMsg);
+            }
+
+            try {
+                bankDb.createAccount(new Account(holderName));
+            } catch (Exception e) {
+                throw new AccountException(failureMsg, e);
+            }
+        } finally {
+            createAccountTimer.record(start);
         }
+    }
 
+    /**
+     * Creates the accounts in the specified account file, see
+     * <code>AccountFileReader</code> for the format. The file is read in chunks
+     * of <code>chunkSize</code> lines, and the accounts of each chunk are created
+     * in one transaction, with a few statements whatever the chunk size.
+     * Malformed lines are rejected, and do not stop the rest of the file from
+     * being imported.
+     *
+     * @param fileName  The path of the account file.
+     * @param chunkSize The maximum number of accounts created in each
+     *                  transaction.
+     * @return A report telling how many accounts were created, and which lines
+     *         were rejected.
+     * @throws AccountException If unable to read the file or to create the
+     *                          accounts. Chunks imported before the failure stay
+     *                          imported.
+     */
+    public ImportReport importAccounts(String fileName, int chunkSize) throws AccountException {
+        long start = System.nanoTime();
         try {
-            bankDb.createAccount(new Account(holderName));
-        } catch (Exception e) {
-            throw new AccountException(failureMsg, e);
+            String failureMsg = "Could not import accounts from: " + fileName;
+
+            if (fileName == null || chunkSize < 1) {
+                throw new AccountException(failureMsg);
+            }
+
+            ImportReport report = new ImportReport();
+            try (AccountFileReader accountFile = new AccountFileReader(fileName)) {
+                List<Account> chunk = new ArrayList<>(chunkSize);
+                Account account;
+                while ((account = accountFile.readNext(report)) != null) {
+                    chunk.add(account);
+                    if (chunk.size() == chunkSize) {
+                        importChunk(chunk, report);
+                        chunk.clear();
+                    }
+                }
+                importChunk(chunk, report);
+            } catch (BankDBException bdbe) {
+                throw new AccountException(failureMsg, bdbe);
+            }
+            return report;
+        } finally {
+            importAccountsTimer.record(start);
+        }
+    }
+
+    private void importChunk(List<Account> chunk, ImportReport report) throws BankDBException {
+        if (chunk.isEmpty()) {
+            return;
         }
+        report.addImported(bankDb.createAccounts(chunk).size());
     }
 
     /**
@@ -79,10 +274,139 @@ public class Controller {
      * @throws AccountException If unable to retrieve accounts.
      */
     public List<? extends AccountDTO> getAllAccounts() throws AccountException {
+        long start = System.nanoTime();
         try {
             return bankDb.findAllAccounts();
         } catch (Exception e) {
             throw new AccountException("Unable to list accounts.", e);
+        } finally {
+            getAllAccountsTimer.record(start);
+        }
+    }
+
+    /**
+     * Passes all accounts in the whole bank to the specified consumer, one at a
+     * time, as they are read from the database. Unlike
+     * <code>getAllAccounts</code>, the accounts are never all kept in memory.
+     * 
+     * @param consumer Called once for each account.
+     * @throws AccountException If unable to retrieve accounts.
+     */
+    public void forEachAccount(Consumer<? super AccountDTO> consumer) throws AccountException {
+        long start = System.nanoTime();
+        try {
+            bankDb.findAllAccounts(consumer);
+        } catch (Exception e) {
+            throw new AccountException("Unable to list accounts.", e);
+        } finally {
+            forEachAccountTimer.record(start);
+        }
+    }
+
+    /**
+     * Writes all accounts in the whole bank to the specified file, which is
+     * created in the export directory, see <code>AccountFileWriter</code>, and
+     * must not exist. The accounts are streamed from the
+     * database to the file, so memory use does not depend on the number of
+     * accounts. See <code>AccountFileWriter</code> for the formats.
+     *
+     * @param fileName The path of the export file, relative to the export
+     *                 directory.
+     * @param format   <code>csv</code> or <code>binary</code>.
+     * @return The number of exported accounts.
+     * @throws AccountException If the format is illegal, if the file is outside
+     *                          the export directory or exists, or if unable to
+     *                          read the accounts or to write the file.
+     */
+    public long exportAccounts(String fileName, String format) throws AccountException {
+        long start = System.nanoTime();
+        try {
+            String failureMsg = "Could not export accounts to: " + fileName;
+
+            if (fileName == null || format == null) {
+                throw new AccountException(failureMsg);
+            }
+            AccountFileWriter.Format fileFormat;
+            try {
+                fileFormat = AccountFileWriter.Format.valueOf(format.toUpperCase());
+            } catch (IllegalArgumentException iae) {
+                throw new AccountException(failureMsg + ", illegal format: " + format);
+            }
+
+            try (AccountFileWriter writer = new AccountFileWriter(fileName, fileFormat)) {
+                return bankDb.exportAccounts(writer);
+            } catch (BankDBException bdbe) {
+                throw new AccountException(failureMsg, bdbe);
+            }
+        } finally {
+            exportAccountsTimer.record(start);
+        }
+    }
+
+    /**
+     * Counts all accounts in the whole bank, and sums their balances. This is
+     * computed by the database, use it instead of summing the balances of
+     * <code>getAllAccounts</code>.
+     *
+     * @return The number of accounts and the sum of their balances.
+     * @throws AccountException If unable to count the accounts.
+     */
+    public BankTotals getTotals() throws AccountException {
+        long start = System.nanoTime();
+        try {
+            return bankDb.findTotals();
+        } catch (Exception e) {
+            throw new AccountException("Unable to count accounts.", e);
+        } finally {
+            getTotalsTimer.record(start);
+        }
+    }
+
+    /**
+     * Lists the holders whose accounts have the highest sums of balances, with
+     * the number of accounts each of them has. The sums are computed by the
+     * database, which returns only the listed holders.
+     *
+     * @param limit The maximum number of holders to list.
+     * @return A list with the holders, highest sum first.
+     * @throws AccountException If the limit is less than one, or if unable to
+     *                          sum the balances.
+     */
+    public List<HolderSummary> getHolderSummaries(int limit) throws AccountException {
+        if (limit < 1) {
+            throw new AccountException("Illegal number of holders: " + limit);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return bankDb.findHolderSummaries(limit);
+        } catch (Exception e) {
+            throw new AccountException("Unable to sum balances per holder.", e);
+        } finally {
+            getHolderSummariesTimer.record(start);
+        }
+    }
+
+    /**
+     * Lists the accounts with the highest balances in the whole bank.
+     *
+     * @param limit The maximum number of accounts to list.
+     * @return A list with the accounts, highest balance first.
+     * @throws AccountException If the limit is less than one, or if unable to
+     *                          retrieve the accounts.
+     */
+    public List<? extends AccountDTO> getTopAccounts(int limit) throws AccountException {
+        if (limit < 1) {
+            throw new AccountException("Illegal number of accounts: " + limit);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return bankDb.findTopAccounts(limit);
+        } catch (Exception e) {
+            throw new AccountException("Unable to list the accounts with the highest balances.", e);
+        } finally {
+            getTopAccountsTimer.record(start);
         }
     }
 
@@ -96,14 +420,71 @@ public class Controller {
      * @throws AccountException If unable to retrieve the holder's accounts.
      */
     public List<? extends AccountDTO> getAccountsForHolder(String holderName) throws AccountException {
-        if (holderName == null) {
-            return new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            if (holderName == null) {
+                return new ArrayList<>();
+            }
+
+            try {
+                return bankDb.findAccountsByHolder(holderName);
+            } catch (Exception e) {
+                throw new AccountException("Could not search for account.", e);
+            }
+        } finally {
+            getAccountsForHolderTimer.record(start);
         }
+    }
 
+    /**
+     * Lists one page of accounts in the whole bank.
+     * 
+     * @param pageSize The maximum number of accounts on the page.
+     * @param after    The cursor of the previous page, or <code>null</code> for
+     *                 the first page.
+     * @return The page, which holds the cursor of the next page.
+     * @throws AccountException If unable to retrieve accounts.
+     */
+    public AccountPage getAccountsPage(int pageSize, String after) throws AccountException {
+        long start = System.nanoTime();
         try {
-            return bankDb.findAccountsByHolder(holderName);
+            return findAccountsPage(null, pageSize, after);
+        } finally {
+            getAccountsPageTimer.record(start);
+        }
+    }
+
+    /**
+     * Lists one page of accounts owned by the specified account holder.
+     * 
+     * @param holderName The holder who's accounts shall be listed, or
+     *                   <code>null</code> to list accounts of all holders.
+     * @param pageSize   The maximum number of accounts on the page.
+     * @param after      The cursor of the previous page, or <code>null</code> for
+     *                   the first page.
+     * @return The page, which holds the cursor of the next page.
+     * @throws AccountException If unable to retrieve accounts.
+     */
+    public AccountPage getAccountsForHolderPage(String holderName, int pageSize, String after)
+            throws AccountException {
+        long start = System.nanoTime();
+        try {
+            return findAccountsPage(holderName, pageSize, after);
+        } finally {
+            getAccountsForHolderPageTimer.record(start);
+        }
+    }
+
+    private AccountPage findAccountsPage(String holderName, int pageSize, String after)
+            throws AccountException {
+        if (pageSize < 1) {
+            throw new AccountException("Illegal page size: " + pageSize);
+        }
+
+        try {
+            return bankDb.findAccountsPage(holderName, pageSize, after);
         } catch (Exception e) {
-            throw new AccountException("Could not search for account.", e);
+            throw new AccountException("Unable to list accounts.", e);
         }
     }
 
@@ -116,17 +497,40 @@ public class Controller {
      * @throws AccountException If unable to retrieve the account.
      */
     public AccountDTO getAccount(String acctNo) throws AccountException {
-        if (acctNo == null) {
-            return null;
-        }
-
+        long start = System.nanoTime();
         try {
-            return bankDb.findAccountByAcctNo(acctNo, false);
-        } catch (Exception e) {
-            throw new AccountException("Could not search for account.", e);
+            if (acctNo == null) {
+                return null;
+            }
+            validateAcctNo(acctNo, "Could not search for account: " + acctNo);
+
+            AccountDTO cachedAcct = accountCache.get(acctNo);
+            if (cachedAcct != null) {
+                return cachedAcct;
+            }
+
+            try {
+                long stamp = accountCache.readStamp(acctNo);
+                Account acct = bankDb.findAccountByAcctNo(acctNo, false);
+                if (acct != null) {
+                    accountCache.put(acct, stamp);
+                }
+                return acct;
+            } catch (Exception e) {
+                throw new AccountException("Could not search for account.", e);
+            }
+        } finally {
+            getAccountTimer.record(start);
         }
     }
 
+    /**
+     * @return The cache used by <code>getAccount</code>.
+     */
+    public AccountCache getAccountCache() {
+        return accountCache;
+    }
+
     /**
      * Deposits the specified amount to the account with the specified account
      * number.
@@ -137,21 +541,19 @@ public class Controller {
      * @throws AccountException  If failed to deposit.
      */
     public void deposit(String acctNo, int amt) throws RejectedException, AccountException {
-        String failureMsg = "Could not deposit to account: " + acctNo;
+        long start = System.nanoTime();
+        try {
+            String failureMsg = "Could not deposit to account: " + acctNo;
 
-        if (acctNo == null) {
-            throw new AccountException(failureMsg);
-        }
+            validateAcctNo(acctNo, failureMsg);
+            if (amt < 0) {
+                throw new RejectedException("Tried to deposit negative value, illegal value: "
+                                            + amt + ", account: " + acctNo);
+            }
 
-        try {
-            Account acct = bankDb.findAccountByAcctNo(acctNo, true);
-            acct.deposit(amt);
-            bankDb.updateAccount(acct);
-        } catch (BankDBException bdbe) {
-            throw new AccountException(failureMsg, bdbe);
-        } catch (Exception e) {
-            commitOngoingTransaction(failureMsg);
-            throw e;
+            changeBalance(acctNo, amt, failureMsg);
+        } finally {
+            depositTimer.record(start);
         }
     }
 
@@ -165,24 +567,437 @@ public class Controller {
      * @throws AccountException  If failed to withdraw.
      */
     public void withdraw(String acctNo, int amt) throws RejectedException, AccountException {
-        String failureMsg = "Could not withdraw from account: " + acctNo;
+        long start = System.nanoTime();
+        try {
+            String failureMsg = "Could not withdraw from account: " + acctNo;
 
-        if (acctNo == null) {
-            throw new AccountException(failureMsg);
+            validateAcctNo(acctNo, failureMsg);
+            if (amt < 0) {
+                throw new RejectedException("Tried to withdraw negative value, illegal value: "
+                                            + amt + ", account: " + acctNo);
+            }
+
+            changeBalance(acctNo, -amt, failureMsg);
+        } finally {
+            withdrawTimer.record(start);
+        }
+    }
+
+    /**
+     * Changes the balance in a group with other threads' changes if group commit
+     * is enabled, and on its own otherwise.
+     */
+    private void changeBalance(String acctNo, int amt, String failureMsg)
+            throws RejectedException, AccountException {
+        if (groupCommitter == null) {
+            addToBalance(acctNo, amt, failureMsg);
+            return;
+        }
+        Exception failure = groupCommitter.apply(new BalanceChange(acctNo, amt, 0));
+        if (failure instanceof RejectedException) {
+            throw (RejectedException) failure;
         }
+        if (failure != null) {
+            throw (AccountException) failure;
+        }
+    }
 
+    /**
+     * Changes the balance with a single conditional update, which is rejected by
+     * the database if the balance would become negative. Only if the update is
+     * rejected is the account read, to tell an overdraft from a missing account.
+     */
+    private void addToBalance(String acctNo, int amt, String failureMsg)
+            throws RejectedException, AccountException {
+        Account acct;
         try {
-            Account acct = bankDb.findAccountByAcctNo(acctNo, true);
-            acct.withdraw(amt);
-            bankDb.updateAccount(acct);
+            long balance = bankDb.addToBalance(acctNo, amt);
+            if (balance != BankStorage.NOT_APPLIED) {
+                return;
+            }
+            acct = bankDb.findAccountByAcctNo(acctNo, false);
         } catch (BankDBException bdbe) {
             throw new AccountException(failureMsg, bdbe);
+        } finally {
+            accountCache.invalidate(acctNo);
+        }
+        if (acct == null) {
+            throw new AccountException(failureMsg + ", no such account.");
+        }
+        overdraftCounter.increment();
+        throw new RejectedException("Overdraft attempt, illegal value: " + -amt
+                                    + ", account: " + acct);
+    }
+
+    /**
+     * Performs a sequence of deposits and withdrawals in one transaction, with
+     * the same result as calling <code>deposit</code> or <code>withdraw</code>
+     * once for each change, in the specified order. Changes are applied in order
+     * of account number, which avoids deadlocks with other transactions, but
+     * changes to the same account are applied in the specified order. That gives
+     * the same result, since a change is only affected by earlier changes to the
+     * same account. A change that is rejected does not prevent the others from
+     * being applied. If the transaction fails, the changes are instead performed
+     * one at a time.
+     * 
+     * @param changes The changes to perform. A positive amount, or zero, is a
+     *                deposit, a negative amount is a withdrawal.
+     * @return An array with one element per change, which is <code>null</code>
+     *         if the change was performed, and otherwise is the
+     *         <code>RejectedException</code> or <code>AccountException</code>
+     *         that <code>deposit</code> or <code>withdraw</code> would have
+     *         thrown.
+     */
+    public Exception[] applyBalanceChanges(List<BalanceChange> changes) {
+        long start = System.nanoTime();
+        try {
+            Exception[] failures = new Exception[changes.size()];
+            List<Integer> validIndexes = new ArrayList<>(changes.size());
+            for (int i = 0; i < changes.size(); i++) {
+                BalanceChange change = changes.get(i);
+                try {
+                    validateAcctNo(change.getAccountNo(), balanceChangeFailureMsg(change));
+                    validIndexes.add(i);
+                } catch (AccountException ae) {
+                    failures[i] = ae;
+                }
+            }
+            validIndexes.sort(Comparator.comparing(i -> changes.get(i).getAccountNo()));
+            List<BalanceChange> sortedChanges = new ArrayList<>(validIndexes.size());
+            for (int i : validIndexes) {
+                sortedChanges.add(changes.get(i));
+            }
+
+            try {
+                boolean[] applied = bankDb.addToBalances(sortedChanges);
+                int runStart = 0;
+                for (int i = 1; i <= sortedChanges.size(); i++) {
+                    if (i == sortedChanges.size() || !sortedChanges.get(i).getAccountNo()
+                            .equals(sortedChanges.get(runStart).getAccountNo())) {
+                        explainRejections(sortedChanges, applied, runStart, i, validIndexes,
+                                          failures);
+                        runStart = i;
+                    }
+                }
+            } catch (BankDBException bdbe) {
+                for (int i : validIndexes) {
+                    failures[i] = applyBalanceChange(changes.get(i));
+                }
+            } finally {
+                for (BalanceChange change : sortedChanges) {
+                    accountCache.invalidate(change.getAccountNo());
+                }
+            }
+            return failures;
+        } finally {
+            applyBalanceChangesTimer.record(start);
+        }
+    }
+
+    private Exception applyBalanceChange(BalanceChange change) {
+        try {
+            addToBalance(change.getAccountNo(), change.getAmount(),
+                         balanceChangeFailureMsg(change));
+            return null;
+        } catch (RejectedException | AccountException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Tells why the changes in <code>changes[from, to)</code>, which all concern
+     * the same account, were not applied. The account is read once, and the
+     * balance each change saw is found by undoing the later changes.
+     */
+    private void explainRejections(List<BalanceChange> changes, boolean[] applied, int from,
+                                   int to, List<Integer> indexes, Exception[] failures) {
+        boolean anyRejected = false;
+        for (int i = from; i < to; i++) {
+            anyRejected |= !applied[i];
+        }
+        if (!anyRejected) {
+            return;
+        }
+        Account acct;
+        try {
+            acct = bankDb.findAccountByAcctNo(changes.get(from).getAccountNo(), false);
+        } catch (BankDBException bdbe) {
+            for (int i = from; i < to; i++) {
+                if (!applied[i]) {
+                    failures[indexes.get(i)] =
+                        new AccountException(balanceChangeFailureMsg(changes.get(i)), bdbe);
+                }
+            }
+            return;
+        }
+        long balance = acct == null ? 0 : acct.getBalance();
+        for (int i = to - 1; i >= from; i--) {
+            BalanceChange change = changes.get(i);
+            if (applied[i]) {
+                balance -= change.getAmount();
+            } else if (acct == null) {
+                failures[indexes.get(i)] =
+                    new AccountException(balanceChangeFailureMsg(change) + ", no such account.");
+            } else {
+                overdraftCounter.increment();
+                Account acctBeforeChange = new Account(acct.getAccountNo(), acct.getHolderName(),
+                                                       (int) balance);
+                failures[indexes.get(i)] =
+                    new RejectedException("Overdraft attempt, illegal value: "
+                                          + -change.getAmount() + ", account: "
+                                          + acctBeforeChange);
+            }
+        }
+    }
+
+    private String balanceChangeFailureMsg(BalanceChange change) {
+        if (change.getAmount() >= 0) {
+            return "Could not deposit to account: " + change.getAccountNo();
+        }
+        return "Could not withdraw from account: " + change.getAccountNo();
+    }
+
+    /**
+     * Transfers the specified amount from one account to another. Both accounts
+     * are updated in the same transaction. Depending on
+     * <code>bankdb.lockMode</code>, the accounts are locked while the transfer is
+     * checked, or read without locks and saved only if they are unchanged.
+     * 
+     * @param fromAcctNo The number of the account from which to withdraw.
+     * @param toAcctNo   The number of the account to which to deposit.
+     * @param amt        The amount to transfer.
+     * @throws RejectedException If not allowed to transfer the specified amount.
+     * @throws AccountException  If failed to transfer.
+     */
+    public void transfer(String fromAcctNo, String toAcctNo, int amt)
+            throws RejectedException, AccountException {
+        long start = System.nanoTime();
+        try {
+            String failureMsg = "Could not transfer from account: " + fromAcctNo
+                                + ", to account: " + toAcctNo;
+
+            validateAcctNo(fromAcctNo, failureMsg);
+            validateAcctNo(toAcctNo, failureMsg);
+            if (fromAcctNo.equals(toAcctNo)) {
+                throw new RejectedException("Tried to transfer to the same account: " + fromAcctNo);
+            }
+            if (amt < 0) {
+                throw new RejectedException("Tried to transfer negative value, illegal value: "
+                                            + amt);
+            }
+
+            try {
+                if (!optimisticTransfers
+                    || !transferOptimistically(fromAcctNo, toAcctNo, amt, failureMsg)) {
+                    transferLocking(fromAcctNo, toAcctNo, amt, failureMsg);
+                }
+            } catch (BankDBException bdbe) {
+                throw new AccountException(failureMsg, bdbe);
+            } finally {
+                accountCache.invalidate(fromAcctNo);
+                accountCache.invalidate(toAcctNo);
+            }
+        } finally {
+            transferTimer.record(start);
+        }
+    }
+
+    /**
+     * Performs a transfer while both accounts are locked.
+     */
+    private void transferLocking(String fromAcctNo, String toAcctNo, int amt, String failureMsg)
+            throws RejectedException, AccountException, BankDBException {
+        try {
+            checkTransfer(bankDb.findAccountsByAcctNoLockingForUpdate(fromAcctNo, toAcctNo),
+                          fromAcctNo, amt, failureMsg);
+            bankDb.transferBalance(fromAcctNo, toAcctNo, amt);
+        } catch (BankDBException bdbe) {
+            throw bdbe;
         } catch (Exception e) {
             commitOngoingTransaction(failureMsg);
             throw e;
         }
     }
 
+    /**
+     * Performs a transfer without locking the accounts. The accounts are read,
+     * checked, and saved only if they are unchanged since they were read. If
+     * not, the transfer is retried after a random delay, which grows with each
+     * retry.
+     *
+     * @return <code>false</code> if the transfer was not performed, since the
+     *         accounts were changed by someone else at every attempt.
+     */
+    private boolean transferOptimistically(String fromAcctNo, String toAcctNo, int amt,
+                                           String failureMsg)
+            throws RejectedException, AccountException, BankDBException {
+        for (int retry = 0; retry <= maxTransferRetries; retry++) {
+            if (retry > 0) {
+                long maxBackoffMicros = Math.min(MAX_TRANSFER_BACKOFF_MICROS,
+                        MIN_TRANSFER_BACKOFF_MICROS << Math.min(retry - 1, 20));
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(
+                        ThreadLocalRandom.current().nextLong(maxBackoffMicros) + 1));
+            }
+            Account[] accounts = checkTransfer(bankDb.findAccountsByAcctNo(fromAcctNo, toAcctNo),
+                                               fromAcctNo, amt, failureMsg);
+            if (bankDb.transferBalanceIfUnchanged(accounts[0], accounts[1], amt)) {
+                return true;
+            }
+            transferConflictCounter.increment();
+        }
+        return false;
+    }
+
+    /**
+     * Checks that the specified amount may be transferred between the specified
+     * accounts.
+     *
+     * @return The account to withdraw from, and the account to deposit to.
+     */
+    private Account[] checkTransfer(List<Account> accounts, String fromAcctNo, int amt,
+                                    String failureMsg) throws RejectedException, AccountException {
+        Account fromAcct = null;
+        Account toAcct = null;
+        for (Account acct : accounts) {
+            if (acct.getAccountNo().equals(fromAcctNo)) {
+                fromAcct = acct;
+            } else {
+                toAcct = acct;
+            }
+        }
+        if (fromAcct == null || toAcct == null) {
+            throw new AccountException(failureMsg + ", no such account.");
+        }
+        try {
+            fromAcct.withdraw(amt);
+        } catch (RejectedException re) {
+            overdraftCounter.increment();
+            throw re;
+        }
+        toAcct.deposit(amt);
+        return new Account[] {fromAcct, toAcct};
+    }
+
+    /**
+     * Applies all deposits and withdrawals in the specified ledger file. The file
+     * is read in chunks of <code>chunkSize</code> lines, and each chunk is
+     * applied in one transaction. Within a chunk, all changes to the same account
+     * are summed, and only the sum is applied. Therefore, a withdrawal is not
+     * rejected if a deposit later in the same chunk covers it. If the sum does
+     * not fit in an int, all that account's changes in the chunk are rejected.
+     * A rejected change does not stop the rest of the file from being applied.
+     * 
+     * @param fileName  The path of the ledger file.
+     * @param chunkSize The maximum number of lines applied in each transaction.
+     * @return A report telling how many changes were applied, and which lines
+     *         were rejected.
+     * @throws AccountException If unable to read the file or to update the
+     *                          database. Chunks applied before the failure stay
+     *                          applied.
+     */
+    public LedgerReport applyLedger(String fileName, int chunkSize) throws AccountException {
+        long start = System.nanoTime();
+        try {
+            String failureMsg = "Could not apply ledger: " + fileName;
+
+            if (fileName == null || chunkSize < 1) {
+                throw new AccountException(failureMsg);
+            }
+
+            LedgerReport report = new LedgerReport();
+            try (LedgerFileReader ledger = new LedgerFileReader(fileName)) {
+                List<BalanceChange> chunk = new ArrayList<>(chunkSize);
+                BalanceChange change;
+                while ((change = ledger.readNext(report)) != null) {
+                    chunk.add(change);
+                    if (chunk.size() == chunkSize) {
+                        applyLedgerChunk(chunk, report);
+                        chunk.clear();
+                    }
+                }
+                applyLedgerChunk(chunk, report);
+            } catch (BankDBException bdbe) {
+                throw new AccountException(failureMsg, bdbe);
+            }
+            return report;
+        } finally {
+            applyLedgerTimer.record(start);
+        }
+    }
+
+    private void applyLedgerChunk(List<BalanceChange> chunk, LedgerReport report)
+            throws BankDBException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Map<String, List<BalanceChange>> changesByAcctNo = new TreeMap<>();
+        for (BalanceChange change : chunk) {
+            if (!isWellFormed(change.getAccountNo())) {
+                report.addRejected(change.getLineNo(), "invalid account number, " + change);
+                continue;
+            }
+            changesByAcctNo.computeIfAbsent(change.getAccountNo(), acctNo -> new ArrayList<>())
+                           .add(change);
+        }
+        List<BalanceChange> netChanges = new ArrayList<>(changesByAcctNo.size());
+        for (List<BalanceChange> changes : changesByAcctNo.values()) {
+            long sum = 0;
+            for (BalanceChange change : changes) {
+                sum += change.getAmount();
+            }
+            if (sum < Integer.MIN_VALUE || sum > Integer.MAX_VALUE) {
+                for (BalanceChange change : changes) {
+                    report.addRejected(change.getLineNo(),
+                                       "net change out of range: " + sum + ", " + change);
+                }
+                continue;
+            }
+            BalanceChange first = changes.get(0);
+            netChanges.add(new BalanceChange(first.getAccountNo(), (int) sum, first.getLineNo()));
+        }
+        if (netChanges.isEmpty()) {
+            return;
+        }
+
+        boolean[] applied = bankDb.addToBalances(netChanges);
+        for (BalanceChange netChange : netChanges) {
+            accountCache.invalidate(netChange.getAccountNo());
+        }
+        for (int i = 0; i < applied.length; i++) {
+            BalanceChange netChange = netChanges.get(i);
+            List<BalanceChange> changes = changesByAcctNo.get(netChange.getAccountNo());
+            if (applied[i]) {
+                report.addApplied(changes.size());
+                continue;
+            }
+            String reason = "overdraft, net change in chunk: " + netChange.getAmount();
+            if (bankDb.findAccountByAcctNo(netChange.getAccountNo(), false) == null) {
+                reason = "no such account";
+            } else {
+                overdraftCounter.increment();
+            }
+            for (BalanceChange change : changes) {
+                report.addRejected(change.getLineNo(), reason + ", " + change);
+            }
+        }
+    }
+
+    /**
+     * Rejects malformed account numbers before any database call is made.
+     */
+    private void validateAcctNo(String acctNo, String failureMsg) throws AccountException {
+        if (acctNo == null) {
+            throw new AccountException(failureMsg);
+        }
+        if (!isWellFormed(acctNo)) {
+            throw new AccountException(failureMsg + ", invalid account number.");
+        }
+    }
+
+    private boolean isWellFormed(String acctNo) {
+        return !validateCheckDigit || AccountNumberFormat.isValid(acctNo);
+    }
+
     private void commitOngoingTransaction(String failureMsg) throws AccountException {
         try {
             bankDb.commit();
@@ -198,16 +1013,21 @@ public class Controller {
      * @throws AccountException If failed to delete the specified account.
      */
     public void deleteAccount(String acctNo) throws AccountException {
-        String failureMsg = "Could not delete account: " + acctNo;
+        long start = System.nanoTime();
+        try {
+            String failureMsg = "Could not delete account: " + acctNo;
 
-        if (acctNo == null) {
-            throw new AccountException(failureMsg);
-        }
+            validateAcctNo(acctNo, failureMsg);
 
-        try {
-            bankDb.deleteAccount(acctNo);
-        } catch (Exception e) {
-            throw new AccountException(failureMsg, e);
+            try {
+                bankDb.deleteAccount(acctNo);
+            } catch (Exception e) {
+                throw new AccountException(failureMsg, e);
+            } finally {
+                accountCache.invalidate(acctNo);
+            }
+        } finally {
+            deleteAccountTimer.record(start);
         }
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import se.kth.iv1351.bankjdbc.metrics.Metrics;
+import se.kth.iv1351.bankjdbc.metrics.OperationTimer;
+import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+
+/**
+ * Collects balance changes from concurrent callers, and applies them in groups,
+ * each group in one transaction with one commit. A group is started by the first
+ * change that arrives, and is applied when it has waited
+ * <code>windowNanos</code>, or when it holds <code>maxBatchSize</code> changes.
+ * Changes that arrive while a group is being applied are put in the next group.
+ * Each caller waits until its own change is applied, and is then told whether it
+ * was applied or why not. If applying a group throws, also an error, all its
+ * callers are told so, and the following groups are applied as usual. This
+ * class is thread safe.
+ */
+class GroupCommitter {
+    private final Function<List<BalanceChange>, Exception[]> applier;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingChange> queue = new LinkedBlockingQueue<>();
+    private final OperationTimer flushTimer = Metrics.timer("GroupCommitter", "flush");
+
+    /**
+     * Creates a new instance, and starts the thread that applies the groups.
+     *
+     * @param applier      Applies a group of changes in one transaction, and
+     *                     returns one element per change, <code>null</code> if it
+     *                     was applied, otherwise the reason it was not.
+     * @param windowNanos  How long the first change of a group waits for more
+     *                     changes.
+     * @param maxBatchSize The maximum number of changes in a group.
+     */
+    GroupCommitter(Function<List<BalanceChange>, Exception[]> applier, long windowNanos,
+                   int maxBatchSize) {
+        if (windowNanos < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Illegal group commit settings, window (ns): "
+                                               + windowNanos + ", max batch size: "
+                                               + maxBatchSize);
+        }
+        this.applier = applier;
+        this.windowNanos = windowNanos;
+        this.maxBatchSize = maxBatchSize;
+        Thread flusher = new Thread(this::applyGroups, "group-committer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Applies the specified change together with changes made by other threads,
+     * and waits until it is applied.
+     *
+     * @param change The change to apply.
+     * @return <code>null</code> if the change was applied, otherwise the reason
+     *         it was not.
+     */
+    Exception apply(BalanceChange change) {
+        PendingChange pending = new PendingChange(change);
+        queue.add(pending);
+        return pending.result.join();
+    }
+
+    private void applyGroups() {
+        List<PendingChange> group = new ArrayList<>(maxBatchSize);
+        while (true) {
+            try {
+                PendingChange first = queue.take();
+                group.add(first);
+                long deadline = first.arrivedAt + windowNanos;
+                while (group.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingChange next = remaining > 0
+                                         ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                                         : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException ie) {
+                // The thread is never interrupted, apply what is collected and go on.
+            }
+            applyGroup(group);
+            group.clear();
+        }
+    }
+
+    private void applyGroup(List<PendingChange> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<BalanceChange> changes = new ArrayList<>(group.size());
+        for (PendingChange pending : group) {
+            changes.add(pending.change);
+        }
+        try {
+            Exception[] failures = applier.apply(changes);
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).result.complete(failures[i]);
+            }
+        } catch (Throwable failure) {
+            // Also errors, since the callers wait for their results, and this
+            // thread must survive to apply the following groups.
+            for (PendingChange pending : group) {
+                pending.result.complete(new AccountException("Could not apply a group of "
+                                                             + group.size() + " changes.",
+                                                             failure));
+            }
+        } finally {
+            flushTimer.addRows(group.size());
+            flushTimer.record(start);
+        }
+    }
+
+    private static class PendingChange {
+        private final BalanceChange change;
+        private final long arrivedAt = System.nanoTime();
+        private final CompletableFuture<Exception> result = new CompletableFuture<>();
+
+        private PendingChange(BalanceChange change) {
+            this.change = change;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.ImportReport;
+
+/**
+ * Reads an account file one line at a time, the whole file is never kept in
+ * memory. Each line is <code>&lt;holder name&gt;,&lt;balance&gt;</code>, and
+ * describes a new account. The balance is the text after the last comma, so the
+ * holder name may contain commas. Empty lines and lines starting with
+ * <code>#</code> are ignored.
+ */
+public class AccountFileReader implements AutoCloseable {
+    private static final int MAX_HOLDER_NAME_LENGTH = 100;
+    private final String fileName;
+    private final BufferedReader reader;
+    private int lineNo = 0;
+
+    /**
+     * Opens the specified account file.
+     *
+     * @param fileName The path of the account file.
+     * @throws BankDBException If unable to open the file.
+     */
+    public AccountFileReader(String fileName) throws BankDBException {
+        this.fileName = fileName;
+        try {
+            reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not open account file: " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Reads the next account. Malformed lines are skipped and recorded as
+     * rejected in the specified report, with the reason but not the line's
+     * content.
+     *
+     * @param report The report where malformed lines are recorded.
+     * @return The next account, which has no account number, or
+     *         <code>null</code> if the end of the file is reached.
+     * @throws BankDBException If unable to read the file.
+     */
+    public Account readNext(ImportReport report) throws BankDBException {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                Account account = parseLine(trimmed, report);
+                if (account != null) {
+                    return account;
+                }
+            }
+            return null;
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not read line " + (lineNo + 1)
+                                      + " of account file: " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws BankDBException If unable to close the file.
+     */
+    @Override
+    public void close() throws BankDBException {
+        try {
+            reader.close();
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not close account file: " + fileName, ioe);
+        }
+    }
+
+    private Account parseLine(String line, ImportReport report) {
+        int separator = line.lastIndexOf(',');
+        if (separator < 0) {
+            report.addRejected(lineNo, "malformed line: no comma before the balance");
+            return null;
+        }
+        String holderName = line.substring(0, separator).trim();
+        if (holderName.isEmpty() || holderName.length() > MAX_HOLDER_NAME_LENGTH) {
+            report.addRejected(lineNo, "malformed line: holder name is empty or longer than "
+                                       + MAX_HOLDER_NAME_LENGTH + " characters");
+            return null;
+        }
+        int balance;
+        try {
+            balance = Integer.parseInt(line.substring(separator + 1).trim());
+        } catch (NumberFormatException nfe) {
+            report.addRejected(lineNo, "malformed line: balance is not an integer");
+            return null;
+        }
+        if (balance < 0) {
+            report.addRejected(lineNo, "malformed line: negative balance");
+            return null;
+        }
+        return new Account(holderName, balance);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes accounts to an export file, through a file channel and a large
+ * buffer, which is the only memory used whatever the number of accounts.
+ * Export files are only written in the directory specified by the system
+ * property <code>bankdb.export.dir</code>, default the working directory, or in
+ * its subdirectories, and an existing file is never replaced.
+ * <p>
+ * A CSV file starts with the header line
+ * <code>account_no,holder_name,balance</code>, followed by one line per
+ * account. A holder name that contains a comma, a quote or a line break is
+ * quoted, with each quote doubled.
+ * <p>
+ * A binary file starts with the int <code>MAGIC</code> and the int
+ * <code>FORMAT_VERSION</code>, followed by one record per account: the length
+ * of the account number as a byte, the account number in ASCII, the length of
+ * the holder name as a short, the holder name in UTF-8, and the balance as a
+ * long. All numbers are big-endian.
+ */
+public class AccountFileWriter implements AutoCloseable {
+    /**
+     * The formats of export files.
+     */
+    public enum Format {
+        /**
+         * Text, with one comma separated line per account.
+         */
+        CSV,
+        /**
+         * Binary, with one length-prefixed record per account.
+         */
+        BINARY
+    }
+
+    static final int MAGIC = 0x42414343;
+    static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final byte[] CSV_HEADER =
+            "account_no,holder_name,balance\n".getBytes(StandardCharsets.US_ASCII);
+    private final String fileName;
+    private final Format format;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final byte[] digits = new byte[20];
+    private long byteCount;
+
+    /**
+     * Creates the specified export file, and writes its header.
+     *
+     * @param fileName The path of the export file, relative to the export
+     *                 directory.
+     * @param format   The format of the export file.
+     * @throws BankDBException If the file is outside the export directory, if
+     *                         it already exists, or if unable to create it.
+     */
+    public AccountFileWriter(String fileName, Format format) throws BankDBException {
+        this.fileName = fileName;
+        this.format = format;
+        String failureMsg = "Could not create export file: " + fileName;
+        try {
+            Path exportDir = Paths.get(System.getProperty("bankdb.export.dir", ".")).toRealPath();
+            Path file = exportDir.resolve(fileName).normalize();
+            if (file.getParent() == null || !file.getParent().toRealPath().startsWith(exportDir)) {
+                throw new BankDBException(failureMsg + ", not in export directory: " + exportDir);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                                       StandardOpenOption.WRITE);
+        } catch (IOException ioe) {
+            throw new BankDBException(failureMsg, ioe);
+        }
+        if (format == Format.CSV) {
+            buffer.put(CSV_HEADER);
+        } else {
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+        }
+    }
+
+    /**
+     * @return The format of the export file.
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Writes one account.
+     *
+     * @param acctNo     The account number.
+     * @param holderName The holder's name.
+     * @param balance    The balance.
+     * @throws IOException If unable to write to the file.
+     */
+    public void write(String acctNo, String holderName, long balance) throws IOException {
+        if (format == Format.CSV) {
+            putAscii(acctNo);
+            putByte(',');
+            putCsvField(holderName);
+            putByte(',');
+            putDecimal(balance);
+            putByte('\n');
+        } else {
+            ensureRemaining(1);
+            buffer.put((byte) acctNo.length());
+            putAscii(acctNo);
+            byte[] holderNameBytes = holderName.getBytes(StandardCharsets.UTF_8);
+            ensureRemaining(2);
+            buffer.putShort((short) holderNameBytes.length);
+            putBytes(holderNameBytes, 0, holderNameBytes.length);
+            ensureRemaining(8);
+            buffer.putLong(balance);
+        }
+    }
+
+    /**
+     * Returns a stream whose bytes are written to the file as they are, without
+     * any formatting. It is used to write lines that are already formatted, for
+     * example by the database. Closing the stream does not close the file.
+     *
+     * @return A stream that writes to the file.
+     */
+    public OutputStream asOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                putByte(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                putBytes(bytes, offset, length);
+            }
+        };
+    }
+
+    /**
+     * @return The number of bytes written to the file so far.
+     */
+    public long getByteCount() {
+        return byteCount + buffer.position();
+    }
+
+    /**
+     * Writes all buffered bytes, and closes the file.
+     *
+     * @throws BankDBException If unable to write or close the file.
+     */
+    @Override
+    public void close() throws BankDBException {
+        try {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not write export file: " + fileName, ioe);
+        }
+    }
+
+    private void putCsvField(String value) throws IOException {
+        boolean quote = value.isEmpty();
+        boolean ascii = true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            quote |= c == ',' || c == '"' || c == '\n' || c == '\r';
+            ascii &= c < 0x80;
+        }
+        if (!quote && ascii) {
+            putAscii(value);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (!quote) {
+            putBytes(bytes, 0, bytes.length);
+            return;
+        }
+        putByte('"');
+        for (byte b : bytes) {
+            if (b == '"') {
+                putByte('"');
+            }
+            putByte(b);
+        }
+        putByte('"');
+    }
+
+    private void putAscii(String value) throws IOException {
+        int length = value.length();
+        int written = 0;
+        while (written < length) {
+            ensureRemaining(1);
+            int end = Math.min(length, written + buffer.remaining());
+            for (; written < end; written++) {
+                buffer.put((byte) value.charAt(written));
+            }
+        }
+    }
+
+    private void putDecimal(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        long remaining = Math.abs(value);
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        putBytes(digits, start, digits.length - start);
+    }
+
+    private void putByte(int b) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    private void putBytes(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensureRemaining(1);
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            byteCount += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
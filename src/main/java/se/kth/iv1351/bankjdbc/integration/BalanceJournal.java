@@ -0,0 +1,287 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import se.kth.iv1351.bankjdbc.metrics.Metrics;
+import se.kth.iv1351.bankjdbc.metrics.OperationTimer;
+
+/**
+ * An append-only journal of balance changes and account deletions, written to
+ * memory-mapped segment files in a directory. A new segment is started when
+ * the process starts, and when the current segment is full. Each segment starts
+ * with a header, which is followed by records. A record is the length of its
+ * payload, a CRC32C checksum of the payload, and the payload itself: the
+ * timestamp, the balance after the change, the change, the record's type, and
+ * the account number. The rest of a segment is filled with zeros, a record
+ * length of zero therefore marks the end of the records.
+ * <p>
+ * The records of a transaction are appended before the transaction is
+ * committed, so that no committed change is missing from the journal. If the
+ * commit then fails, or the process crashes before the commit, the journal
+ * holds changes that were never committed.
+ * <p>
+ * A record is written to the mapped segment, which means it is in the
+ * operating system's page cache and survives if the process crashes. To
+ * survive an operating system crash or power failure, the segment must also be
+ * flushed to disk. If <code>syncIntervalMillis</code> is zero, that is done by
+ * <code>append</code>, before it returns. Otherwise, the records written during
+ * the interval are flushed together by a background thread, and the records of
+ * the last interval may be lost. A record that was only partly written is
+ * detected by its checksum when the journal is read, see
+ * <code>JournalReader</code>.
+ * <p>
+ * Only one process at a time may write to a directory. This class is thread
+ * safe.
+ */
+public class BalanceJournal implements AutoCloseable {
+    static final int MAGIC = 0x424a4e4c;
+    static final int FORMAT_VERSION = 2;
+    static final int SEGMENT_HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 8;
+    static final int FIXED_PAYLOAD_BYTES = 22;
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    private final OperationTimer syncTimer = Metrics.timer("BalanceJournal", "sync");
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean syncEachAppend;
+    private final ScheduledExecutorService syncer;
+    private final CRC32C checksum = new CRC32C();
+    private long segmentNo;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int syncedUpTo;
+    private boolean closed = false;
+
+    /**
+     * Creates a new instance, which writes to a new segment in the specified
+     * directory. The directory is created if it does not exist.
+     *
+     * @param dir                The directory of the segments.
+     * @param segmentBytes       The size of each segment file.
+     * @param syncIntervalMillis How often written records are flushed to disk,
+     *                           zero to flush the records of each append
+     *                           before it returns.
+     * @throws BankDBException If unable to create the segment.
+     */
+    public BalanceJournal(Path dir, int segmentBytes, long syncIntervalMillis)
+            throws BankDBException {
+        if (segmentBytes < SEGMENT_HEADER_BYTES + RECORD_HEADER_BYTES + FIXED_PAYLOAD_BYTES + 255
+            || syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("Illegal journal settings, segment size: "
+                                               + segmentBytes + ", sync interval (ms): "
+                                               + syncIntervalMillis);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.syncEachAppend = syncIntervalMillis == 0;
+        try {
+            Files.createDirectories(dir);
+            List<Path> segments = JournalReader.findSegments(dir);
+            segmentNo = segments.isEmpty() ? 0
+                    : JournalReader.segmentNo(segments.get(segments.size() - 1));
+            startSegment();
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not open the balance journal in: " + dir, ioe);
+        }
+        if (syncEachAppend) {
+            syncer = null;
+        } else {
+            syncer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread syncThread = new Thread(task, "journal-syncer");
+                syncThread.setDaemon(true);
+                return syncThread;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis,
+                                          TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates a new instance configured by the system properties
+     * <code>bankdb.journal.dir</code>, <code>bankdb.journal.segmentMB</code>,
+     * default 64, and <code>bankdb.journal.syncIntervalMillis</code>, default 10.
+     * The journal is closed when the JVM shuts down.
+     *
+     * @return The new journal, or <code>null</code> if
+     *         <code>bankdb.journal.dir</code> is not set.
+     * @throws BankDBException If unable to create the segment.
+     */
+    public static BalanceJournal fromSystemProperties() throws BankDBException {
+        String dir = System.getProperty("bankdb.journal.dir");
+        if (dir == null) {
+            return null;
+        }
+        BalanceJournal journal = new BalanceJournal(Paths.get(dir),
+                Integer.getInteger("bankdb.journal.segmentMB", 64) << 20,
+                Long.getLong("bankdb.journal.syncIntervalMillis", 10));
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+        return journal;
+    }
+
+    /**
+     * Appends the specified records, in the specified order. If the journal
+     * flushes each append, the records are on disk when this method returns.
+     *
+     * @param records The records to append.
+     * @throws BankDBException If unable to start a new segment, or if the
+     *                         journal is closed. Records appended before the
+     *                         failure stay in the journal.
+     */
+    public void append(List<JournalRecord> records) throws BankDBException {
+        byte[][] acctNos = new byte[records.size()][];
+        for (int i = 0; i < acctNos.length; i++) {
+            acctNos[i] = records.get(i).getAccountNo().getBytes(StandardCharsets.US_ASCII);
+            if (acctNos[i].length > 255) {
+                throw new IllegalArgumentException("Too long account number: "
+                                                   + records.get(i).getAccountNo());
+            }
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new BankDBException("The balance journal is closed.");
+            }
+            for (int i = 0; i < acctNos.length; i++) {
+                write(records.get(i), acctNos[i]);
+            }
+            if (syncEachAppend && segment.position() > syncedUpTo) {
+                long start = System.nanoTime();
+                segment.force(syncedUpTo, segment.position() - syncedUpTo);
+                syncTimer.record(start);
+                syncedUpTo = segment.position();
+            }
+        }
+    }
+
+    /**
+     * Flushes all written records to disk, and closes the current segment.
+     * Records can not be appended after this method is called.
+     */
+    @Override
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segment.force();
+            closeChannel();
+        }
+    }
+
+    /**
+     * Flushes the records written since the last flush to disk. The segment is
+     * flushed without holding the lock, so that records can be appended
+     * meanwhile.
+     */
+    private void sync() {
+        MappedByteBuffer syncedSegment;
+        int from;
+        int to;
+        synchronized (this) {
+            if (closed || segment.position() == syncedUpTo) {
+                return;
+            }
+            syncedSegment = segment;
+            from = syncedUpTo;
+            to = segment.position();
+            syncedUpTo = to;
+        }
+        long start = System.nanoTime();
+        syncedSegment.force(from, to - from);
+        syncTimer.record(start);
+    }
+
+    /**
+     * Writes one record to the current segment, after starting a new segment
+     * if the record does not fit. Must be called while holding the lock.
+     */
+    private void write(JournalRecord record, byte[] acctNoBytes) throws BankDBException {
+        int payloadBytes = FIXED_PAYLOAD_BYTES + acctNoBytes.length;
+        if (segment.remaining() < RECORD_HEADER_BYTES + payloadBytes) {
+            rollSegment();
+        }
+        int recordStart = segment.position();
+        segment.position(recordStart + RECORD_HEADER_BYTES);
+        segment.putLong(record.getTimestampMillis());
+        segment.putLong(record.getBalance());
+        segment.putInt(record.getDelta());
+        segment.put((byte) record.getType().ordinal());
+        segment.put((byte) acctNoBytes.length);
+        segment.put(acctNoBytes);
+        checksum.reset();
+        checksum.update(segment.slice(recordStart + RECORD_HEADER_BYTES, payloadBytes));
+        segment.putInt(recordStart + 4, (int) checksum.getValue());
+        segment.putInt(recordStart, payloadBytes);
+    }
+
+    private void rollSegment() throws BankDBException {
+        segment.force();
+        closeChannel();
+        try {
+            startSegment();
+        } catch (IOException ioe) {
+            closed = true;
+            throw new BankDBException("Could not start a new journal segment in: " + dir, ioe);
+        }
+    }
+
+    private void startSegment() throws IOException {
+        segmentNo++;
+        Path path = dir.resolve(JournalReader.segmentFileName(segmentNo));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(MAGIC);
+        segment.putInt(FORMAT_VERSION);
+        segment.putLong(segmentNo);
+        segment.force(0, SEGMENT_HEADER_BYTES);
+        syncedUpTo = segment.position();
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
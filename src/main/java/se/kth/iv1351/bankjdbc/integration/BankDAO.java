@@ -23,75 +23,322 @@
 
 package se.kth.iv1351.bankjdbc.integration;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import org.postgresql.PGConnection;
 
 import se.kth.iv1351.bankjdbc.model.Account;
 import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.AccountPage;
+import se.kth.iv1351.bankjdbc.metrics.Counter;
+import se.kth.iv1351.bankjdbc.metrics.Metrics;
+import se.kth.iv1351.bankjdbc.metrics.OperationTimer;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+import se.kth.iv1351.bankjdbc.model.BankTotals;
+import se.kth.iv1351.bankjdbc.model.HolderSummary;
 
 /**
  * This data access object (DAO) encapsulates all database calls in the bank
  * application. No code outside this class shall have any knowledge about the
  * database.
+ * <p>
+ * The duration of each public method, the number of rows returned by the
+ * searches, and the number of commits and rollbacks are published over JMX,
+ * see <code>Metrics</code>.
+ * <p>
+ * Deposits to the hot accounts listed in the system property
+ * <code>bankdb.hotAccounts</code> are not added to the account row, but to one
+ * of <code>bankdb.hotAccounts.slots</code> slot rows, chosen at random. Deposits
+ * to the same account therefore seldom wait for each other's row locks. The
+ * balance of any account is the balance of its account row plus the balances
+ * of its slots, and all reads return that sum. A withdrawal is first taken from
+ * the account row. If the row's balance is too small, the account row is locked,
+ * and the withdrawal is taken from a slot with enough funds, or, if there is no
+ * such slot, all slots are moved to the account row. Balances that are read
+ * under lock are read after the lock is taken, so a withdrawal is rejected
+ * exactly when the sum would become negative.
+ * <p>
+ * Each account row has a version, which is incremented by every update of the
+ * row. Together with <code>findAccountsByAcctNo</code> and
+ * <code>transferBalanceIfUnchanged</code>, it allows optimistic transfers, which
+ * read the accounts without locking them. A withdrawal from a slot also
+ * increments the version of the account row, since it makes the balance
+ * smaller.
+ * <p>
+ * If the system property <code>bankdb.storage</code> is <code>ledger</code>,
+ * deposits, withdrawals and transfers do not change the account rows' balances.
+ * Instead, each change is appended to the ledger table
+ * <code>account_entry</code>. A deposit is a single INSERT, which does not
+ * wait for any other operation. A withdrawal locks the account row, by
+ * incrementing its version, and is appended only if the balance does not
+ * become negative. The balance of an account is its account row's balance, which is a
+ * snapshot, plus the sum of its entries. The snapshots are updated every
+ * <code>bankdb.ledger.compactIntervalMillis</code> milliseconds by
+ * <code>compactLedger</code>, which adds the entries to the snapshots and moves
+ * them to <code>account_entry_history</code>, so that the full history is kept.
+ * <p>
+ * Reads sum the slots only if there are hot accounts, or slots left by an
+ * earlier run, and the ledger entries only in ledger mode. Outside ledger mode,
+ * entries left by an earlier run are added to the account rows when the DAO is
+ * created. Accounts without slots or entries thereby cost a single index probe
+ * to read.
+ * <p>
+ * If there is a balance journal, the records of a transaction's changes are
+ * appended to it just before the transaction is committed, and the transaction
+ * is rolled back if they can not be appended.
  */
-public class BankDAO {
+public class BankDAO implements BankStorage {
     private static final String HOLDER_TABLE_NAME = "holder";
     private static final String HOLDER_PK_COLUMN_NAME = "holder_id";
     private static final String HOLDER_COLUMN_NAME = "name";
     private static final String ACCT_TABLE_NAME = "account";
+    private static final String ACCT_PK_COLUMN_NAME = "account_id";
     private static final String ACCT_NO_COLUMN_NAME = "account_no";
     private static final String BALANCE_COLUMN_NAME = "balance";
+    private static final String VERSION_COLUMN_NAME = "version";
     private static final String HOLDER_FK_COLUMN_NAME = HOLDER_PK_COLUMN_NAME;
+    private static final String SLOT_TABLE_NAME = "account_slot";
+    private static final String SLOT_COLUMN_NAME = "slot";
+    private static final String ACCT_FK_COLUMN_NAME = ACCT_PK_COLUMN_NAME;
+    private static final String ENTRY_TABLE_NAME = "account_entry";
+    private static final String ENTRY_HISTORY_TABLE_NAME = "account_entry_history";
+    private static final String ENTRY_PK_COLUMN_NAME = "entry_id";
+    private static final String AMOUNT_COLUMN_NAME = "amount";
+    private static final String CREATED_COLUMN_NAME = "created_at";
+    private static final String HAS_PARTS_COLUMN_NAME = "has_parts";
+    private static final String IMPORT_TABLE_NAME = "account_import";
+    private static final String IMPORT_HOLDER_COLUMN_NAME = "holder_name";
+    private static final String ACCT_COUNT_COLUMN_NAME = "account_count";
+    private static final String SLOT_SUM = " + COALESCE((SELECT SUM(s." + BALANCE_COLUMN_NAME
+            + ") FROM " + SLOT_TABLE_NAME + " s WHERE s." + ACCT_FK_COLUMN_NAME + " = a."
+            + ACCT_PK_COLUMN_NAME + "), 0)";
+    private static final String ENTRY_SUM = " + COALESCE((SELECT SUM(e." + AMOUNT_COLUMN_NAME
+            + ") FROM " + ENTRY_TABLE_NAME + " e WHERE e." + ACCT_FK_COLUMN_NAME + " = a."
+            + ACCT_PK_COLUMN_NAME + "), 0)";
+    private static final String HAS_SLOTS = "EXISTS (SELECT 1 FROM " + SLOT_TABLE_NAME + " s WHERE s."
+            + ACCT_FK_COLUMN_NAME + " = a." + ACCT_PK_COLUMN_NAME + ")";
+    private static final String HAS_ENTRIES = "EXISTS (SELECT 1 FROM " + ENTRY_TABLE_NAME
+            + " e WHERE e." + ACCT_FK_COLUMN_NAME + " = a." + ACCT_PK_COLUMN_NAME + ")";
+    private static final String INCREMENT_VERSION = VERSION_COLUMN_NAME + " = "
+            + VERSION_COLUMN_NAME + " + 1";
+
+    private static final String DEFAULT_URL = "jdbc:postgresql://localhost:5432/bankdb";
+    private static final String DEFAULT_USER = "postgres";
+    private static final String DEFAULT_PASSWORD = "postgres";
 
-    private Connection connection;
-    private PreparedStatement createHolderStmt;
-    private PreparedStatement findHolderPKStmt;
-    private PreparedStatement createAccountStmt;
-    private PreparedStatement findAccountByNameStmt;
-    private PreparedStatement findAccountByAcctNoStmt;
-    private PreparedStatement findAccountByAcctNoStmtLockingForUpdate;
-    private PreparedStatement findAllAccountsStmt;
-    private PreparedStatement deleteAccountStmt;
-    private PreparedStatement changeBalanceStmt;
+    private static final String METRICS_TYPE = "BankDAO";
+
+    private final OperationTimer createAccountTimer = Metrics.timer(METRICS_TYPE, "createAccount");
+    private final OperationTimer createAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "createAccounts");
+    private final OperationTimer findAccountByAcctNoTimer =
+            Metrics.timer(METRICS_TYPE, "findAccountByAcctNo");
+    private final OperationTimer findAccountsLockingTimer =
+            Metrics.timer(METRICS_TYPE, "findAccountsByAcctNoLockingForUpdate");
+    private final OperationTimer findAccountsTimer = Metrics.timer(METRICS_TYPE, "findAccountsByAcctNo");
+    private final OperationTimer findAccountsByHolderTimer =
+            Metrics.timer(METRICS_TYPE, "findAccountsByHolder");
+    private final OperationTimer findAllAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "findAllAccounts");
+    private final OperationTimer streamAllAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "findAllAccountsStreaming");
+    private final OperationTimer exportAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "exportAccounts");
+    private final OperationTimer findTotalsTimer = Metrics.timer(METRICS_TYPE, "findTotals");
+    private final OperationTimer findHolderSummariesTimer =
+            Metrics.timer(METRICS_TYPE, "findHolderSummaries");
+    private final OperationTimer findTopAccountsTimer =
+            Metrics.timer(METRICS_TYPE, "findTopAccounts");
+    private final OperationTimer findAccountsPageTimer =
+            Metrics.timer(METRICS_TYPE, "findAccountsPage");
+    private final OperationTimer transferBalanceTimer =
+            Metrics.timer(METRICS_TYPE, "transferBalance");
+    private final OperationTimer transferBalanceIfUnchangedTimer =
+            Metrics.timer(METRICS_TYPE, "transferBalanceIfUnchanged");
+    private final OperationTimer addToBalanceTimer = Metrics.timer(METRICS_TYPE, "addToBalance");
+    private final OperationTimer addToBalancesTimer =
+            Metrics.timer(METRICS_TYPE, "addToBalances");
+    private final OperationTimer deleteAccountTimer = Metrics.timer(METRICS_TYPE, "deleteAccount");
+    private final OperationTimer compactLedgerTimer = Metrics.timer(METRICS_TYPE, "compactLedger");
+    private final OperationTimer commitTimer = Metrics.timer(METRICS_TYPE, "commit");
+    private final Counter commitCounter = Metrics.counter(METRICS_TYPE, "commits");
+    private final Counter rollbackCounter = Metrics.counter(METRICS_TYPE, "rollbacks");
+    private final int fetchSize = Integer.getInteger("bankdb.fetchSize", 1000);
+    private final Map<String, Integer> holderPKCache;
+    private final Set<String> hotAccounts = new HashSet<>();
+    private final int hotAccountSlots = Integer.getInteger("bankdb.hotAccounts.slots", 16);
+    private final boolean ledgerMode;
+    private final int compactBatchSize = Integer.getInteger("bankdb.ledger.compactBatchSize", 10000);
+    private final BalanceJournal journal;
+    private boolean slotsInBalance = true;
+    private boolean entriesInBalance = true;
+    private final ThreadLocal<PooledConnection> transactionConnection = new ThreadLocal<>();
+    private ConnectionPool pool;
+    private AccountNoAllocator acctNoAllocator;
+    private String createHolderSql;
+    private String createAccountSql;
+    private String findAccountByNameSql;
+    private String findAccountByAcctNoSql;
+    private String findAccountByAcctNoLockingForUpdateSql;
+    private String findAllAccountsSql;
+    private String exportAccountsSql;
+    private String copyAccountsOutSql;
+    private String findTotalsSql;
+    private String findHolderSummariesSql;
+    private String findTopAccountsSql;
+    private String findAccountsPageSql;
+    private String findAccountsPageByNameSql;
+    private String deleteAccountSql;
+    private String addToBalanceSql;
+    private String addToBalanceReturningSql;
+    private String addToBalanceByPKSql;
+    private String findTwoAccountsSql;
+    private String findTwoAccountsLockingForUpdateSql;
+    private String addToTwoBalancesSql;
+    private String addToTwoUnchangedBalancesSql;
+    private String lockAccountSql;
+    private String hasPartsSql;
+    private String findSlotsSql;
+    private String findTotalBalanceSql;
+    private String addToSlotSql;
+    private String depositToSlotSql;
+    private String appendEntrySql;
+    private String appendEntryReturningSql;
+    private String lockAccountByVersionSql;
+    private String appendWithdrawalSql;
+    private String appendTwoEntriesSql;
+    private String appendTwoUnchangedEntriesSql;
+    private String compactLedgerSql;
+    private String createImportTableSql;
+    private String copyToImportTableSql;
+    private String createImportedHoldersSql;
+    private String createImportedAccountsSql;
+    private String clearImportTableSql;
 
     /**
-     * Constructs a new DAO object connected to the bank database.
+     * Constructs a new DAO object connected to the bank database. The database is
+     * specified by the system properties <code>bankdb.url</code>,
+     * <code>bankdb.user</code> and <code>bankdb.password</code>. Each operation
+     * borrows a connection from a pool, which is configured by the system
+     * properties <code>bankdb.pool.minSize</code>,
+     * <code>bankdb.pool.maxSize</code>,
+     * <code>bankdb.pool.acquireTimeoutMillis</code>,
+     * <code>bankdb.pool.validationTimeoutSeconds</code> and
+     * <code>bankdb.pool.statementCacheSize</code>. The number of rows fetched
+     * per round trip when streaming accounts is read from the system property
+     * <code>bankdb.fetchSize</code>. The primary keys of at most
+     * <code>bankdb.holderCache.size</code> holders are cached.
+     * <p>
+     * The database schema is upgraded to the current version if the system
+     * property <code>bankdb.schema</code> is <code>migrate</code>, which is the
+     * default. If it is <code>verify</code>, the schema is only checked, and if
+     * it is <code>none</code>, the schema is neither upgraded nor checked.
+     * <p>
+     * Account numbers are allocated in blocks from a database sequence, unless
+     * the system property <code>bankdb.acctNo.allocator</code> is
+     * <code>random</code>.
+     * <p>
+     * Deposits to the accounts whose numbers are listed, separated by commas, in
+     * the system property <code>bankdb.hotAccounts</code> are spread over
+     * <code>bankdb.hotAccounts.slots</code> slot rows, default 16.
+     * <p>
+     * Balance changes are appended to a ledger if the system property
+     * <code>bankdb.storage</code> is <code>ledger</code>, instead of the default
+     * <code>row</code>. The ledger is then compacted every
+     * <code>bankdb.ledger.compactIntervalMillis</code> milliseconds, default
+     * 1000, at most <code>bankdb.ledger.compactBatchSize</code> entries, default
+     * 10000, per transaction.
+     * <p>
+     * Balance changes and account deletions are journaled if the system
+     * property <code>bankdb.journal.dir</code> is set, see
+     * <code>BalanceJournal.fromSystemProperties</code>.
+     *
+     * @throws BankDBException If unable to connect to the database, if the
+     *                         schema can not be upgraded or is not up to date,
+     *                         or if unable to open the journal.
      */
     public BankDAO() throws BankDBException {
+        int holderCacheSize = Integer.getInteger("bankdb.holderCache.size", 10000);
+        holderPKCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > holderCacheSize;
+            }
+        });
+        for (String acctNo : System.getProperty("bankdb.hotAccounts", "").split(",")) {
+            if (!acctNo.isBlank()) {
+                hotAccounts.add(acctNo.trim());
+            }
+        }
+        if (hotAccountSlots < 1) {
+            throw new BankDBException("Illegal value of bankdb.hotAccounts.slots: "
+                                      + hotAccountSlots);
+        }
+        String storage = System.getProperty("bankdb.storage", "row");
+        if (!storage.equals("row") && !storage.equals("ledger")) {
+            throw new BankDBException("Illegal value of bankdb.storage: " + storage);
+        }
+        ledgerMode = storage.equals("ledger");
+        if (compactBatchSize < 1) {
+            throw new BankDBException("Illegal value of bankdb.ledger.compactBatchSize: "
+                                      + compactBatchSize);
+        }
+        journal = BalanceJournal.fromSystemProperties();
         try {
             connectToBankDB();
-            prepareStatements();
-        } catch (ClassNotFoundException | SQLException exception) {
+            verifyDatabaseProduct();
+            migrateSchema();
+            createAccountNoAllocator();
+            prepareSql();
+            excludeAbsentBalanceParts();
+        } catch (SQLException exception) {
             throw new BankDBException("Could not connect to datasource.", exception);
         }
+        if (ledgerMode) {
+            new LedgerCompactor(this, Long.getLong("bankdb.ledger.compactIntervalMillis", 1000));
+        }
     }
 
     /**
-     * Creates a new account.
+     * Creates a new account. If the holder's primary key is cached, this requires
+     * a single INSERT. If not, the holder is first created, or found if it
+     * already exists, by a single upsert statement.
      *
      * @param account The account to create.
      * @throws BankDBException If failed to create the specified account.
      */
+    @Override
     public void createAccount(AccountDTO account) throws BankDBException {
         String failureMsg = "Could not create the account: " + account;
+        String holderName = account.getHolderName();
         int updatedRows = 0;
+        long start = System.nanoTime();
         try {
-            int holderPK = findHolderPKByName(account.getHolderName());
-            if (holderPK == 0) {
-                createHolderStmt.setString(1, account.getHolderName());
-                updatedRows = createHolderStmt.executeUpdate();
-                if (updatedRows != 1) {
-                    handleException(failureMsg, null);
-                }
-                holderPK = findHolderPKByName(account.getHolderName());
+            Integer cachedHolderPK = holderPKCache.get(holderName);
+            int holderPK;
+            if (cachedHolderPK == null) {
+                holderPK = findOrCreateHolder(holderName);
+            } else {
+                holderPK = cachedHolderPK;
             }
 
-            createAccountStmt.setInt(1, createAccountNo());
+            PreparedStatement createAccountStmt = connection().prepareStatement(createAccountSql);
+            String acctNo = acctNoAllocator.nextAccountNo(connection().getConnection());
+            createAccountStmt.setString(1, acctNo);
             createAccountStmt.setInt(2, account.getBalance());
             createAccountStmt.setInt(3, holderPK);
             updatedRows = createAccountStmt.executeUpdate();
@@ -99,12 +346,68 @@ public class BankDAO {
                 handleException(failureMsg, null);
             }
 
-            connection.commit();
+            commitTransaction(openingBalanceRecords(List.of(account), List.of(acctNo)));
+            holderPKCache.put(holderName, holderPK);
         } catch (SQLException sqle) {
+            holderPKCache.remove(holderName);
             handleException(failureMsg, sqle);
+        } catch (RuntimeException re) {
+            holderPKCache.remove(holderName);
+            rollbackTransaction();
+            throw re;
+        } finally {
+            createAccountTimer.record(start);
         }
     }
 
+    /**
+     * Creates all specified accounts in one transaction. The accounts are first
+     * loaded into a temporary table by COPY. Then one statement creates all missing holders, and one
+     * statement creates all accounts, so the number of round trips does not
+     * depend on the number of accounts. Account numbers are allocated in blocks,
+     * like those of accounts created one at a time.
+     *
+     * @param accounts The accounts to create.
+     * @return The numbers of the created accounts, in the same order as the
+     *         specified accounts.
+     * @throws BankDBException If failed to create the accounts. In that case none
+     *                         of them are created.
+     */
+    @Override
+    public List<String> createAccounts(List<? extends AccountDTO> accounts)
+            throws BankDBException {
+        String failureMsg = "Could not create a batch of " + accounts.size() + " accounts.";
+        List<String> acctNos = new ArrayList<>(accounts.size());
+        if (accounts.isEmpty()) {
+            return acctNos;
+        }
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < accounts.size(); i++) {
+                acctNos.add(acctNoAllocator.nextAccountNo(connection().getConnection()));
+            }
+            connection().prepareStatement(createImportTableSql).executeUpdate();
+            copyToImportTable(accounts, acctNos);
+            connection().prepareStatement(createImportedHoldersSql).executeUpdate();
+            int createdRows = connection().prepareStatement(createImportedAccountsSql)
+                                          .executeUpdate();
+            connection().prepareStatement(clearImportTableSql).executeUpdate();
+            if (createdRows != accounts.size()) {
+                handleException(failureMsg + " Created " + createdRows + " accounts.", null);
+            }
+            commitTransaction(openingBalanceRecords(accounts, acctNos));
+            createAccountsTimer.addRows(createdRows);
+        } catch (SQLException | IOException e) {
+            handleException(failureMsg, e);
+        } catch (RuntimeException re) {
+            rollbackTransaction();
+            throw re;
+        } finally {
+            createAccountsTimer.record(start);
+        }
+        return acctNos;
+    }
+
     /**
      * Searches for the account with the specified account number.
      *
@@ -119,34 +422,124 @@ public class BankDAO {
      *         if there is no such account.
      * @throws BankDBException If failed to search for the account.
      */
+    @Override
     public Account findAccountByAcctNo(String acctNo, boolean lockExclusive)
             throws BankDBException {
-        PreparedStatement stmtToExecute;
+        String stmtToExecute;
         if (lockExclusive) {
-            stmtToExecute = findAccountByAcctNoStmtLockingForUpdate;
+            stmtToExecute = findAccountByAcctNoLockingForUpdateSql;
         } else {
-            stmtToExecute = findAccountByAcctNoStmt;
+            stmtToExecute = findAccountByAcctNoSql;
         }
 
         String failureMsg = "Could not search for specified account.";
         ResultSet result = null;
+        Account account = null;
+        long start = System.nanoTime();
         try {
-            stmtToExecute.setString(1, acctNo);
-            result = stmtToExecute.executeQuery();
+            PreparedStatement stmt = connection().prepareStatement(stmtToExecute);
+            stmt.setString(1, acctNo);
+            result = stmt.executeQuery();
             if (result.next()) {
-                return new Account(result.getString(ACCT_NO_COLUMN_NAME),
-                        result.getString(HOLDER_COLUMN_NAME),
-                        result.getInt(BALANCE_COLUMN_NAME));
+                if (lockExclusive) {
+                    account = lockedAccount(result);
+                } else {
+                    account = new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                            result.getString(HOLDER_COLUMN_NAME),
+                            result.getInt(BALANCE_COLUMN_NAME));
+                }
             }
             if (!lockExclusive) {
-                connection.commit();
+                commitTransaction();
+            }
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+            findAccountByAcctNoTimer.record(start);
+        }
+        return account;
+    }
+
+    /**
+     * Searches for the two accounts with the specified account numbers, and locks
+     * them. It will not be possible to perform UPDATE or DELETE statements on the
+     * selected rows in the current transaction, and the transaction will not be
+     * committed when this method returns. The rows are always locked in account
+     * number order, therefore concurrent calls for the same two accounts can not
+     * deadlock, whatever the order of the arguments.
+     *
+     * @param acctNo      The number of one of the accounts.
+     * @param otherAcctNo The number of the other account.
+     * @return A list with the accounts that were found, ordered by account number.
+     *         The list has less than two elements if any of the accounts does
+     *         not exist.
+     * @throws BankDBException If failed to search for the accounts.
+     */
+    @Override
+    public List<Account> findAccountsByAcctNoLockingForUpdate(String acctNo, String otherAcctNo)
+            throws BankDBException {
+        String failureMsg = "Could not search for specified accounts.";
+        ResultSet result = null;
+        List<Account> accounts = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            PreparedStatement findAccountsStmt =
+                    connection().prepareStatement(findTwoAccountsLockingForUpdateSql);
+            findAccountsStmt.setString(1, acctNo);
+            findAccountsStmt.setString(2, otherAcctNo);
+            result = findAccountsStmt.executeQuery();
+            while (result.next()) {
+                accounts.add(lockedAccount(result));
+            }
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+            findAccountsLockingTimer.record(start);
+        }
+        return accounts;
+    }
+
+    /**
+     * Searches for the two accounts with the specified account numbers, without
+     * locking them. The returned accounts contain the versions of their rows, to
+     * be passed to <code>transferBalanceIfUnchanged</code>. The transaction is
+     * committed when this method returns.
+     *
+     * @param acctNo      The number of one of the accounts.
+     * @param otherAcctNo The number of the other account.
+     * @return A list with the accounts that were found, ordered by account number.
+     *         The list has less than two elements if any of the accounts does
+     *         not exist.
+     * @throws BankDBException If failed to search for the accounts.
+     */
+    @Override
+    public List<Account> findAccountsByAcctNo(String acctNo, String otherAcctNo)
+            throws BankDBException {
+        String failureMsg = "Could not search for specified accounts.";
+        ResultSet result = null;
+        List<Account> accounts = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            PreparedStatement findAccountsStmt = connection().prepareStatement(findTwoAccountsSql);
+            findAccountsStmt.setString(1, acctNo);
+            findAccountsStmt.setString(2, otherAcctNo);
+            result = findAccountsStmt.executeQuery();
+            while (result.next()) {
+                accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                        result.getString(HOLDER_COLUMN_NAME),
+                        result.getInt(BALANCE_COLUMN_NAME),
+                        result.getLong(VERSION_COLUMN_NAME)));
             }
+            commitTransaction();
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         } finally {
             closeResultSet(failureMsg, result);
+            findAccountsTimer.record(start);
         }
-        return null;
+        return accounts;
     }
 
     /**
@@ -157,11 +550,15 @@ public class BankDAO {
      *         the list is empty if there are no such account.
      * @throws BankDBException If failed to search for accounts.
      */
+    @Override
     public List<Account> findAccountsByHolder(String holderName) throws BankDBException {
         String failureMsg = "Could not search for specified accounts.";
         ResultSet result = null;
         List<Account> accounts = new ArrayList<>();
+        long start = System.nanoTime();
         try {
+            PreparedStatement findAccountByNameStmt =
+                    connection().prepareStatement(findAccountByNameSql);
             findAccountByNameStmt.setString(1, holderName);
             result = findAccountByNameStmt.executeQuery();
             while (result.next()) {
@@ -169,11 +566,13 @@ public class BankDAO {
                         result.getString(HOLDER_COLUMN_NAME),
                         result.getInt(BALANCE_COLUMN_NAME)));
             }
-            connection.commit();
+            commitTransaction();
+            findAccountsByHolderTimer.addRows(accounts.size());
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         } finally {
             closeResultSet(failureMsg, result);
+            findAccountsByHolderTimer.record(start);
         }
         return accounts;
     }
@@ -185,43 +584,512 @@ public class BankDAO {
      *         accounts.
      * @throws BankDBException If failed to search for accounts.
      */
+    @Override
     public List<Account> findAllAccounts() throws BankDBException {
         String failureMsg = "Could not list accounts.";
         List<Account> accounts = new ArrayList<>();
-        try (ResultSet result = findAllAccountsStmt.executeQuery()) {
+        long start = System.nanoTime();
+        try (ResultSet result = connection().prepareStatement(findAllAccountsSql).executeQuery()) {
             while (result.next()) {
                 accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
                         result.getString(HOLDER_COLUMN_NAME),
                         result.getInt(BALANCE_COLUMN_NAME)));
             }
-            connection.commit();
+            commitTransaction();
+            findAllAccountsTimer.addRows(accounts.size());
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
+        } finally {
+            findAllAccountsTimer.record(start);
         }
         return accounts;
     }
 
     /**
-     * Changes the balance of the account with the number of the specified
-     * <code>AccountDTO</code> object. The balance is set to the value in the
-     * specified <code>AccountDTO</code>.
+     * Passes all existing accounts to the specified consumer, one at a time, as
+     * they are read from the database. The rows are read through a database
+     * cursor, <code>bankdb.fetchSize</code> rows at a time, so memory use does
+     * not depend on the number of accounts. The transaction is committed when
+     * this method returns.
      *
-     * @param account The account to update.
-     * @throws BankDBException If unable to update the specified account.
+     * @param consumer Called once for each account. The account passed to the
+     *                 consumer must not be used after the consumer returns.
+     * @throws BankDBException If failed to search for accounts.
      */
-    public void updateAccount(AccountDTO account) throws BankDBException {
-        String failureMsg = "Could not update the account: " + account;
+    @Override
+    public void findAllAccounts(Consumer<? super AccountDTO> consumer) throws BankDBException {
+        String failureMsg = "Could not list accounts.";
+        long start = System.nanoTime();
         try {
-            changeBalanceStmt.setInt(1, account.getBalance());
-            changeBalanceStmt.setString(2, account.getAccountNo());
-            int updatedRows = changeBalanceStmt.executeUpdate();
-            if (updatedRows != 1) {
+            PreparedStatement findAllAccountsStmt = connection().prepareStatement(findAllAccountsSql);
+            findAllAccountsStmt.setFetchSize(fetchSize);
+            int rows = 0;
+            try (ResultSet result = findAllAccountsStmt.executeQuery()) {
+                while (result.next()) {
+                    consumer.accept(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                            result.getString(HOLDER_COLUMN_NAME),
+                            result.getInt(BALANCE_COLUMN_NAME)));
+                    rows++;
+                }
+            }
+            commitTransaction();
+            streamAllAccountsTimer.addRows(rows);
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } catch (RuntimeException re) {
+            rollbackTransaction();
+            throw re;
+        } finally {
+            streamAllAccountsTimer.record(start);
+        }
+    }
+
+    /**
+     * Writes all existing accounts to the specified export file, ordered by
+     * their primary key. A CSV file is written by COPY, so the database formats
+     * the lines and the driver's bytes are copied straight to the file's buffer.
+     * A binary file's rows are read through a database cursor,
+     * <code>bankdb.fetchSize</code> rows at a time, and each row's columns are
+     * written without creating an account object. Memory use therefore does not
+     * depend on the number of accounts. The transaction is committed when this
+     * method returns.
+     *
+     * @param writer The export file.
+     * @return The number of exported accounts.
+     * @throws BankDBException If failed to search for accounts, or to write
+     *                         them.
+     */
+    @Override
+    public long exportAccounts(AccountFileWriter writer) throws BankDBException {
+        String failureMsg = "Could not export accounts.";
+        long rows = 0;
+        long start = System.nanoTime();
+        try {
+            if (writer.getFormat() == AccountFileWriter.Format.CSV) {
+                rows = connection().getConnection().unwrap(PGConnection.class).getCopyAPI()
+                                   .copyOut(copyAccountsOutSql, writer.asOutputStream());
+            } else {
+                PreparedStatement exportStmt = connection().prepareStatement(exportAccountsSql);
+                exportStmt.setFetchSize(fetchSize);
+                try (ResultSet result = exportStmt.executeQuery()) {
+                    while (result.next()) {
+                        writer.write(result.getString(1), result.getString(2),
+                                     result.getLong(3));
+                        rows++;
+                    }
+                }
+            }
+            commitTransaction();
+            exportAccountsTimer.addRows(rows);
+        } catch (SQLException | IOException e) {
+            handleException(failureMsg, e);
+        } finally {
+            exportAccountsTimer.record(start);
+        }
+        return rows;
+    }
+
+    /**
+     * Counts all accounts and sums their balances in one statement, so the
+     * database returns a single row. The accounts are counted and their balance
+     * column summed in the same scan, and slots and ledger entries, if there can
+     * be any, are summed separately. The transaction is committed when this
+     * method returns.
+     *
+     * @return The number of accounts and the sum of their balances.
+     * @throws BankDBException If failed to count the accounts.
+     */
+    @Override
+    public BankTotals findTotals() throws BankDBException {
+        String failureMsg = "Could not count accounts.";
+        BankTotals totals = null;
+        long start = System.nanoTime();
+        try (ResultSet result = connection().prepareStatement(findTotalsSql).executeQuery()) {
+            result.next();
+            totals = new BankTotals(result.getLong(ACCT_COUNT_COLUMN_NAME),
+                                    result.getLong(BALANCE_COLUMN_NAME));
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            findTotalsTimer.record(start);
+        }
+        return totals;
+    }
+
+    /**
+     * Sums the balances of each holder's accounts in the database, which
+     * returns only the requested number of holders. The balances of slots and
+     * ledger entries are summed per account once, and joined to the accounts,
+     * instead of being searched for once per account. The accounts are grouped
+     * by the holder's primary key, and the groups are joined to the holders to
+     * get their names. Holders with the same sum are ordered by the code points
+     * of their names, like in <code>InMemoryBankStorage</code>. The transaction is committed when this
+     * method returns.
+     *
+     * @param limit The maximum number of holders to retrieve.
+     * @return A list with the number of accounts and the sum of their balances
+     *         for each retrieved holder, highest sum first.
+     * @throws BankDBException If failed to sum the balances.
+     */
+    @Override
+    public List<HolderSummary> findHolderSummaries(int limit) throws BankDBException {
+        String failureMsg = "Could not sum balances per holder.";
+        List<HolderSummary> summaries = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            PreparedStatement findSummariesStmt =
+                    connection().prepareStatement(findHolderSummariesSql);
+            findSummariesStmt.setInt(1, limit);
+            try (ResultSet result = findSummariesStmt.executeQuery()) {
+                while (result.next()) {
+                    summaries.add(new HolderSummary(result.getString(HOLDER_COLUMN_NAME),
+                                                    result.getInt(ACCT_COUNT_COLUMN_NAME),
+                                                    result.getLong(BALANCE_COLUMN_NAME)));
+                }
+            }
+            commitTransaction();
+            findHolderSummariesTimer.addRows(summaries.size());
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            findHolderSummariesTimer.record(start);
+        }
+        return summaries;
+    }
+
+    /**
+     * Retrieves the accounts with the highest balances. The balance of an
+     * account without slots and ledger entries is its balance column, so the
+     * highest such accounts are found by one scan of the account table, which
+     * keeps only the <code>limit</code> highest. Only these, and the few
+     * accounts that have slots or ledger entries, have their balances summed
+     * and sorted. There is no index on the balance column, since it would
+     * make every balance change update an index. The transaction is committed
+     * when this method returns.
+     *
+     * @param limit The maximum number of accounts to retrieve.
+     * @return A list with the retrieved accounts, highest balance first.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    @Override
+    public List<Account> findTopAccounts(int limit) throws BankDBException {
+        String failureMsg = "Could not search for the accounts with the highest balances.";
+        List<Account> accounts = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            PreparedStatement findTopStmt = connection().prepareStatement(findTopAccountsSql);
+            findTopStmt.setInt(1, limit);
+            findTopStmt.setInt(2, limit);
+            try (ResultSet result = findTopStmt.executeQuery()) {
+                while (result.next()) {
+                    accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                                             result.getString(HOLDER_COLUMN_NAME),
+                                             result.getInt(BALANCE_COLUMN_NAME)));
+                }
+            }
+            commitTransaction();
+            findTopAccountsTimer.addRows(accounts.size());
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            findTopAccountsTimer.record(start);
+        }
+        return accounts;
+    }
+
+    /**
+     * Retrieves one page of accounts. Accounts are ordered by their primary key,
+     * and a page is found by seeking past the key of the previous page's last
+     * account, so retrieving a page costs the same wherever it is in the table.
+     *
+     * @param holderName The holder whose accounts are retrieved, or
+     *                   <code>null</code> to retrieve accounts of all holders.
+     * @param pageSize   The maximum number of accounts on the page.
+     * @param after      The cursor returned with the previous page, or
+     *                   <code>null</code> to retrieve the first page.
+     * @return The page of accounts.
+     * @throws BankDBException If the cursor is invalid, or if failed to search for
+     *                         accounts.
+     */
+    @Override
+    public AccountPage findAccountsPage(String holderName, int pageSize, String after)
+            throws BankDBException {
+        String failureMsg = "Could not list accounts.";
+        long afterKey = decodePageCursor(after);
+        List<Account> accounts = new ArrayList<>();
+        long lastKey = afterKey;
+        boolean hasMore = false;
+        long start = System.nanoTime();
+        try {
+            PreparedStatement findPageStmt;
+            int paramIndex = 1;
+            if (holderName == null) {
+                findPageStmt = connection().prepareStatement(findAccountsPageSql);
+            } else {
+                findPageStmt = connection().prepareStatement(findAccountsPageByNameSql);
+                findPageStmt.setString(paramIndex++, holderName);
+            }
+            findPageStmt.setLong(paramIndex++, afterKey);
+            findPageStmt.setInt(paramIndex, pageSize + 1);
+            try (ResultSet result = findPageStmt.executeQuery()) {
+                while (result.next()) {
+                    if (accounts.size() == pageSize) {
+                        hasMore = true;
+                        break;
+                    }
+                    lastKey = result.getLong(ACCT_PK_COLUMN_NAME);
+                    accounts.add(new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                            result.getString(HOLDER_COLUMN_NAME),
+                            result.getInt(BALANCE_COLUMN_NAME)));
+                }
+            }
+            commitTransaction();
+            findAccountsPageTimer.addRows(accounts.size());
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            findAccountsPageTimer.record(start);
+        }
+        return new AccountPage(accounts, hasMore ? encodePageCursor(lastKey) : null);
+    }
+
+    /**
+     * Moves the specified amount from one account to another with a single
+     * statement. The amount is subtracted from and added to the current
+     * balances, so deposits made to the accounts' slots or ledger entries after
+     * they were read are not lost. In ledger mode, the amounts are appended to
+     * the ledger. The accounts should be locked with
+     * <code>findAccountsByAcctNoLockingForUpdate</code>, and the caller must
+     * have checked that the withdrawal is allowed. The transaction is committed
+     * when this method returns.
+     *
+     * @param fromAcctNo The number of the account to withdraw from.
+     * @param toAcctNo   The number of the account to deposit to.
+     * @param amount     The amount to move.
+     * @throws BankDBException If unable to update both accounts.
+     */
+    @Override
+    public void transferBalance(String fromAcctNo, String toAcctNo, int amount)
+            throws BankDBException {
+        String failureMsg = "Could not transfer from account: " + fromAcctNo + ", to account: "
+                            + toAcctNo;
+        long start = System.nanoTime();
+        try {
+            PreparedStatement addToBalancesStmt;
+            if (ledgerMode) {
+                addToBalancesStmt = connection().prepareStatement(appendTwoEntriesSql);
+                addToBalancesStmt.setString(1, fromAcctNo);
+                addToBalancesStmt.setString(2, toAcctNo);
+                addToBalancesStmt.setString(3, fromAcctNo);
+                addToBalancesStmt.setInt(4, -amount);
+                addToBalancesStmt.setInt(5, amount);
+            } else {
+                addToBalancesStmt = connection().prepareStatement(addToTwoBalancesSql);
+                addToBalancesStmt.setString(1, fromAcctNo);
+                addToBalancesStmt.setInt(2, -amount);
+                addToBalancesStmt.setInt(3, amount);
+                addToBalancesStmt.setString(4, fromAcctNo);
+                addToBalancesStmt.setString(5, toAcctNo);
+            }
+            int updatedRows = addToBalancesStmt.executeUpdate();
+            if (updatedRows != 2) {
                 handleException(failureMsg, null);
             }
-            connection.commit();
+            commitTransaction(transferRecords(fromAcctNo, toAcctNo, amount));
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            transferBalanceTimer.record(start);
+        }
+    }
+
+    /**
+     * Moves the specified amount from one account to another, but only if
+     * neither account row has been updated since the accounts were read by
+     * <code>findAccountsByAcctNo</code>. Both rows are updated by a single
+     * statement, which locks them in account number order so that concurrent
+     * transfers can not deadlock. The transaction is committed if both rows were
+     * unchanged, and rolled back otherwise. The caller must have checked that the withdrawal is
+     * allowed.
+     *
+     * @param from   The account to withdraw from, as it was read.
+     * @param to     The account to deposit to, as it was read.
+     * @param amount The amount to move.
+     * @return <code>true</code> if the amount was moved, <code>false</code> if
+     *         any of the accounts was updated, or deleted, after it was read.
+     * @throws BankDBException If unable to update the accounts.
+     */
+    @Override
+    public boolean transferBalanceIfUnchanged(Account from, Account to, int amount)
+            throws BankDBException {
+        String failureMsg = "Could not transfer from account: " + from.getAccountNo()
+                            + ", to account: " + to.getAccountNo();
+        boolean unchanged = false;
+        long start = System.nanoTime();
+        try {
+            PreparedStatement addToBalancesStmt = connection().prepareStatement(
+                    ledgerMode ? appendTwoUnchangedEntriesSql : addToTwoUnchangedBalancesSql);
+            addToBalancesStmt.setString(1, from.getAccountNo());
+            addToBalancesStmt.setLong(2, from.getVersion());
+            addToBalancesStmt.setString(3, to.getAccountNo());
+            addToBalancesStmt.setLong(4, to.getVersion());
+            addToBalancesStmt.setString(5, from.getAccountNo());
+            addToBalancesStmt.setInt(6, -amount);
+            addToBalancesStmt.setInt(7, amount);
+            unchanged = addToBalancesStmt.executeUpdate() == 2;
+            if (unchanged) {
+                commitTransaction(transferRecords(from.getAccountNo(), to.getAccountNo(), amount));
+            } else {
+                SQLException rollbackExc = rollbackTransaction();
+                if (rollbackExc != null) {
+                    throw new BankDBException(failureMsg, rollbackExc);
+                }
+            }
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
+        } finally {
+            transferBalanceIfUnchangedTimer.record(start);
         }
+        return unchanged;
+    }
+
+    /**
+     * Adds the specified amount to the balance of the account with the specified
+     * number, but only if the balance does not become negative. In ledger mode,
+     * the change is appended to the ledger. Otherwise, a deposit to a hot account
+     * is added to a random slot, and other changes are made by a single
+     * conditional update of the account row. Only if a withdrawal is rejected by
+     * that update, and the account has slots or ledger entries, are they used.
+     * The balance after the change is returned by the same statement that makes
+     * the change. The transaction is committed when this method returns.
+     *
+     * @param acctNo The number of the account to update.
+     * @param amount The amount to add to the balance, a negative amount is
+     *               withdrawn from the balance.
+     * @return The balance after the change, or <code>NOT_APPLIED</code> if
+     *         there is no such account, or if the balance would have become
+     *         negative.
+     * @throws BankDBException If unable to update the account.
+     */
+    @Override
+    public long addToBalance(String acctNo, int amount) throws BankDBException {
+        String failureMsg = "Could not update the account: " + acctNo;
+        long balance = NOT_APPLIED;
+        long start = System.nanoTime();
+        try {
+            if (ledgerMode) {
+                balance = amount >= 0 ? appendEntry(acctNo, amount)
+                                      : appendWithdrawal(acctNo, amount);
+            } else if (amount >= 0 && hotAccounts.contains(acctNo)) {
+                balance = depositToSlot(acctNo, amount);
+            } else {
+                balance = addToAccountRow(acctNo, amount);
+                if (balance == NOT_APPLIED && amount < 0) {
+                    balance = withdrawLocking(acctNo, amount);
+                }
+            }
+            commitTransaction(balance == NOT_APPLIED ? List.of()
+                    : List.of(journalRecord(JournalRecord.Type.BALANCE_CHANGE, acctNo, amount,
+                                            balance)));
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            addToBalanceTimer.record(start);
+        }
+        return balance;
+    }
+
+    /**
+     * Applies all specified balance changes in one transaction, which is committed
+     * when this method returns. The changes are sent to the database as one JDBC
+     * batch. A change is applied only if the account exists and its balance does
+     * not become negative, a change that is not applied does not prevent the
+     * others from being applied. The result is the same as if the changes were
+     * applied one at a time, in order. All changes are made to the account rows.
+     * The changes to accounts whose balances are all in their account rows are
+     * sent as JDBC batches. Changes to hot accounts, which may have slots, are
+     * made one at a time, in their place in the batch, and a withdrawal whose
+     * funds are in the slots is made as in <code>addToBalance</code>. If a
+     * withdrawal from another account is rejected, and that account turns out to
+     * have slots or ledger entries, the transaction is rolled back, and all
+     * changes are made again, with also that account's changes made one at a
+     * time. In ledger mode, the accounts with withdrawals are locked, and their
+     * balances read, once per batch, and the accepted changes are appended by
+     * one JDBC batch.
+     *
+     * @param changes The balance changes to apply. To avoid deadlocks with other
+     *                batches, they should be sorted by account number.
+     * @return An array with one element per change, which is <code>true</code> if
+     *         that change was applied.
+     * @throws BankDBException If unable to apply the batch. In that case none of
+     *                         the changes are applied.
+     */
+    @Override
+    public boolean[] addToBalances(List<BalanceChange> changes) throws BankDBException {
+        String failureMsg = "Could not apply a batch of " + changes.size() + " balance changes.";
+        boolean[] applied = new boolean[changes.size()];
+        long start = System.nanoTime();
+        try {
+            if (ledgerMode) {
+                applied = appendEntries(changes);
+            } else {
+                applied = addToAccountRows(changes, hotAccounts);
+                Set<String> accountsWithParts = findRejectedWithParts(changes, applied);
+                if (!accountsWithParts.isEmpty()) {
+                    SQLException rollbackExc = rollbackTransaction();
+                    if (rollbackExc != null) {
+                        throw rollbackExc;
+                    }
+                    accountsWithParts.addAll(hotAccounts);
+                    applied = addToAccountRows(changes, accountsWithParts);
+                }
+            }
+            commitTransaction(appliedChangeRecords(changes, applied));
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            addToBalancesTimer.record(start);
+        }
+        return applied;
+    }
+
+    /**
+     * Adds the entries in the ledger to the balance snapshots in the account rows,
+     * and moves them to the history table. At most
+     * <code>bankdb.ledger.compactBatchSize</code> entries are moved per
+     * transaction, and transactions are repeated until fewer entries than that
+     * are moved. Each transaction moves entries and updates the snapshots
+     * atomically, so balances are always correct. Entries appended while this
+     * method runs may be left in the ledger.
+     *
+     * @return The number of moved entries.
+     * @throws BankDBException If unable to compact the ledger. Entries moved by
+     *                         earlier transactions stay moved.
+     */
+    public int compactLedger() throws BankDBException {
+        String failureMsg = "Could not compact the ledger.";
+        int movedEntries = 0;
+        long start = System.nanoTime();
+        try {
+            int moved;
+            do {
+                PreparedStatement compactStmt = connection().prepareStatement(compactLedgerSql);
+                compactStmt.setInt(1, compactBatchSize);
+                try (ResultSet result = compactStmt.executeQuery()) {
+                    result.next();
+                    moved = result.getInt(1);
+                }
+                commitTransaction();
+                movedEntries += moved;
+            } while (moved == compactBatchSize);
+            compactLedgerTimer.addRows(movedEntries);
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            compactLedgerTimer.record(start);
+        }
+        return movedEntries;
     }
 
     /**
@@ -230,17 +1098,23 @@ public class BankDAO {
      * @param acctNo The account to delete.
      * @throws BankDBException If unable to delete the specified account.
      */
+    @Override
     public void deleteAccount(String acctNo) throws BankDBException {
         String failureMsg = "Could not delete account: " + acctNo;
+        long start = System.nanoTime();
         try {
+            PreparedStatement deleteAccountStmt = connection().prepareStatement(deleteAccountSql);
             deleteAccountStmt.setString(1, acctNo);
             int updatedRows = deleteAccountStmt.executeUpdate();
             if (updatedRows != 1) {
                 handleException(failureMsg, null);
             }
-            connection.commit();
+            commitTransaction(List.of(journalRecord(JournalRecord.Type.ACCOUNT_DELETION, acctNo, 0,
+                                                    JournalRecord.UNKNOWN_BALANCE)));
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
+        } finally {
+            deleteAccountTimer.record(start);
         }
     }
 
@@ -249,68 +1123,489 @@ public class BankDAO {
      * 
      * @throws BankDBException If unable to commit the current transaction.
      */
+    @Override
     public void commit() throws BankDBException {
+        long start = System.nanoTime();
         try {
-            connection.commit();
+            commitTransaction();
         } catch (SQLException e) {
             handleException("Failed to commit", e);
+        } finally {
+            commitTimer.record(start);
         }
     }
 
-    private void connectToBankDB() throws ClassNotFoundException, SQLException {
-        connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/bankdb",
-                "postgres", "postgres");
-        // connection =
-        // DriverManager.getConnection("jdbc:mysql://localhost:3306/bankdb",
-        // "mysql", "mysql");
-        connection.setAutoCommit(false);
+    /**
+     * @return The pool from which this DAO borrows its connections.
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    private void connectToBankDB() throws SQLException {
+        pool = new ConnectionPool(System.getProperty("bankdb.url", DEFAULT_URL),
+                                  System.getProperty("bankdb.user", DEFAULT_USER),
+                                  System.getProperty("bankdb.password", DEFAULT_PASSWORD),
+                                  Integer.getInteger("bankdb.pool.minSize", 1),
+                                  Integer.getInteger("bankdb.pool.maxSize", 10),
+                                  Long.getLong("bankdb.pool.acquireTimeoutMillis", 30000),
+                                  Integer.getInteger("bankdb.pool.validationTimeoutSeconds", 5),
+                                  Integer.getInteger("bankdb.pool.statementCacheSize", 64));
     }
 
-    private void prepareStatements() throws SQLException {
-        createHolderStmt = connection.prepareStatement("INSERT INTO " + HOLDER_TABLE_NAME
-                + "(" + HOLDER_COLUMN_NAME + ") VALUES (?)");
+    private void migrateSchema() throws SQLException, BankDBException {
+        String modeName = System.getProperty("bankdb.schema", "migrate");
+        SchemaMigrator.Mode mode;
+        try {
+            mode = SchemaMigrator.Mode.valueOf(modeName.toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            throw new BankDBException("Illegal value of bankdb.schema: " + modeName, iae);
+        }
+        PooledConnection conn = pool.acquire();
+        try {
+            new SchemaMigrator(conn.getConnection()).run(mode);
+        } finally {
+            pool.release(conn, false);
+        }
+    }
+
+    private void createAccountNoAllocator() throws SQLException, BankDBException {
+        String allocatorName = System.getProperty("bankdb.acctNo.allocator", "hilo");
+        if (allocatorName.equals("random")) {
+            acctNoAllocator = new RandomAccountNoAllocator();
+            return;
+        }
+        if (!allocatorName.equals("hilo")) {
+            throw new BankDBException("Illegal value of bankdb.acctNo.allocator: " + allocatorName);
+        }
+        acctNoAllocator = new HiLoAccountNoAllocator();
+    }
 
-        createAccountStmt = connection.prepareStatement("INSERT INTO " + ACCT_TABLE_NAME
+    /**
+     * Fails unless the database is PostgreSQL, since many statements, for
+     * example those with <code>RETURNING</code> or <code>COPY</code>, exist only
+     * in PostgreSQL.
+     */
+    private void verifyDatabaseProduct() throws SQLException, BankDBException {
+        PooledConnection conn = pool.acquire();
+        try {
+            if (!conn.getConnection().isWrapperFor(PGConnection.class)) {
+                throw new BankDBException("Only PostgreSQL is supported, not: "
+                        + conn.getConnection().getMetaData().getDatabaseProductName());
+            }
+        } finally {
+            pool.release(conn, false);
+        }
+    }
+
+    /**
+     * Leaves the slots and the ledger entries out of all balance reads if there
+     * can be none. Ledger entries are left in the ledger only by ledger mode, so
+     * outside ledger mode they are first added to the account rows. Slots can
+     * exist if there are hot accounts, or if they were left by an earlier run
+     * with hot accounts.
+     */
+    private void excludeAbsentBalanceParts() throws SQLException, BankDBException {
+        if (!ledgerMode && tableHasRows(ENTRY_TABLE_NAME)) {
+            compactLedger();
+        }
+        entriesInBalance = ledgerMode || tableHasRows(ENTRY_TABLE_NAME);
+        slotsInBalance = !hotAccounts.isEmpty() || tableHasRows(SLOT_TABLE_NAME);
+        if (!entriesInBalance || !slotsInBalance) {
+            prepareSql();
+        }
+    }
+
+    private boolean tableHasRows(String table) throws SQLException {
+        PreparedStatement hasRowsStmt = connection().prepareStatement("SELECT EXISTS (SELECT 1 FROM "
+                                                                      + table + ")");
+        boolean hasRows;
+        try (ResultSet result = hasRowsStmt.executeQuery()) {
+            result.next();
+            hasRows = result.getBoolean(1);
+        }
+        commitTransaction();
+        return hasRows;
+    }
+
+    /**
+     * Returns the connection of the current thread's transaction. If the current
+     * thread has no ongoing transaction, a connection is borrowed from the pool.
+     * The connection stays with the thread until the transaction is committed or
+     * rolled back.
+     */
+    private PooledConnection connection() throws SQLException {
+        PooledConnection conn = transactionConnection.get();
+        if (conn == null) {
+            conn = pool.acquire();
+            transactionConnection.set(conn);
+        }
+        return conn;
+    }
+
+    /**
+     * Commits the current thread's transaction, if there is one, and gives the
+     * connection back to the pool.
+     */
+    private void commitTransaction() throws SQLException {
+        PooledConnection conn = transactionConnection.get();
+        if (conn == null) {
+            return;
+        }
+        conn.commit();
+        commitCounter.increment();
+        transactionConnection.remove();
+        pool.release(conn, false);
+    }
+
+    /**
+     * Appends the specified records to the journal, if there is one, and then
+     * commits the current thread's transaction. If the records can not be
+     * appended, the transaction is not committed.
+     */
+    private void commitTransaction(List<JournalRecord> journalRecords) throws SQLException {
+        if (journal != null && !journalRecords.isEmpty()) {
+            try {
+                journal.append(journalRecords);
+            } catch (BankDBException bdbe) {
+                throw new SQLException("Could not append to the balance journal.", bdbe);
+            }
+        }
+        commitTransaction();
+    }
+
+    /**
+     * Returns journal records of the non-zero balances of the specified new
+     * accounts, or no records if there is no journal.
+     */
+    private List<JournalRecord> openingBalanceRecords(List<? extends AccountDTO> accounts,
+                                                      List<String> acctNos) {
+        List<JournalRecord> records = new ArrayList<>();
+        if (journal == null) {
+            return records;
+        }
+        for (int i = 0; i < accounts.size(); i++) {
+            int balance = accounts.get(i).getBalance();
+            if (balance != 0) {
+                records.add(journalRecord(JournalRecord.Type.BALANCE_CHANGE, acctNos.get(i),
+                                          balance, balance));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns journal records of the applied changes of a batch, or no records
+     * if there is no journal. The balance after each change is not known, since
+     * the changes are sent as a JDBC batch.
+     */
+    private List<JournalRecord> appliedChangeRecords(List<BalanceChange> changes,
+                                                     boolean[] applied) {
+        List<JournalRecord> records = new ArrayList<>();
+        if (journal == null) {
+            return records;
+        }
+        for (int i = 0; i < applied.length; i++) {
+            if (applied[i]) {
+                records.add(journalRecord(JournalRecord.Type.BALANCE_CHANGE,
+                                          changes.get(i).getAccountNo(),
+                                          changes.get(i).getAmount(),
+                                          JournalRecord.UNKNOWN_BALANCE));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns journal records of a transfer. The balances after the transfer
+     * are not known, since they are not read by the statement that makes the
+     * transfer.
+     */
+    private List<JournalRecord> transferRecords(String fromAcctNo, String toAcctNo, int amount) {
+        return List.of(journalRecord(JournalRecord.Type.BALANCE_CHANGE, fromAcctNo, -amount,
+                                     JournalRecord.UNKNOWN_BALANCE),
+                       journalRecord(JournalRecord.Type.BALANCE_CHANGE, toAcctNo, amount,
+                                     JournalRecord.UNKNOWN_BALANCE));
+    }
+
+    private JournalRecord journalRecord(JournalRecord.Type type, String acctNo, int delta,
+                                        long balance) {
+        return new JournalRecord(type, acctNo, delta, balance, System.currentTimeMillis());
+    }
+
+    private void prepareSql() {
+        String balanceSum = "a." + BALANCE_COLUMN_NAME + (slotsInBalance ? SLOT_SUM : "")
+                + (entriesInBalance ? ENTRY_SUM : "");
+        String totalBalance = balanceSum + " AS " + BALANCE_COLUMN_NAME;
+        String hasParts;
+        if (slotsInBalance && entriesInBalance) {
+            hasParts = "(" + HAS_SLOTS + " OR " + HAS_ENTRIES + ")";
+        } else if (slotsInBalance || entriesInBalance) {
+            hasParts = slotsInBalance ? HAS_SLOTS : HAS_ENTRIES;
+        } else {
+            hasParts = "FALSE";
+        }
+        hasParts += " AS " + HAS_PARTS_COLUMN_NAME;
+
+        createHolderSql = "INSERT INTO " + HOLDER_TABLE_NAME
+                + "(" + HOLDER_COLUMN_NAME + ") VALUES (?) ON CONFLICT (" + HOLDER_COLUMN_NAME
+                + ") DO UPDATE SET " + HOLDER_COLUMN_NAME + " = EXCLUDED." + HOLDER_COLUMN_NAME
+                + " RETURNING " + HOLDER_PK_COLUMN_NAME;
+
+        createAccountSql = "INSERT INTO " + ACCT_TABLE_NAME
                 + "(" + ACCT_NO_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + ", "
-                + HOLDER_FK_COLUMN_NAME + ") VALUES (?, ?, ?)");
+                + HOLDER_FK_COLUMN_NAME + ") VALUES (?, ?, ?)";
 
-        findHolderPKStmt = connection.prepareStatement("SELECT " + HOLDER_PK_COLUMN_NAME
-                + " FROM " + HOLDER_TABLE_NAME + " WHERE " + HOLDER_COLUMN_NAME + " = ?");
+        findAccountByAcctNoSql = "SELECT a." + ACCT_NO_COLUMN_NAME + ", " + totalBalance
+                + ", h." + HOLDER_COLUMN_NAME + " from " + ACCT_TABLE_NAME + " a INNER JOIN "
+                + HOLDER_TABLE_NAME + " h USING (" + HOLDER_PK_COLUMN_NAME + ") WHERE a."
+                + ACCT_NO_COLUMN_NAME + " = ?";
 
-        findAccountByAcctNoStmt = connection.prepareStatement("SELECT a." + ACCT_NO_COLUMN_NAME
-                + ", a." + BALANCE_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME + " from "
-                + ACCT_TABLE_NAME + " a INNER JOIN " + HOLDER_TABLE_NAME + " h USING ("
-                + HOLDER_PK_COLUMN_NAME + ") WHERE a." + ACCT_NO_COLUMN_NAME + " = ?");
+        findAccountByAcctNoLockingForUpdateSql = "SELECT a." + ACCT_PK_COLUMN_NAME + ", a."
+                + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME + ", h."
+                + HOLDER_COLUMN_NAME + ", " + hasParts + " from " + ACCT_TABLE_NAME
+                + " a INNER JOIN " + HOLDER_TABLE_NAME + " h USING (" + HOLDER_PK_COLUMN_NAME
+                + ") WHERE a." + ACCT_NO_COLUMN_NAME + " = ? FOR NO KEY UPDATE";
+
+        findTwoAccountsSql = "SELECT a." + ACCT_NO_COLUMN_NAME + ", " + totalBalance + ", a."
+                + VERSION_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME + " from " + ACCT_TABLE_NAME
+                + " a INNER JOIN " + HOLDER_TABLE_NAME + " h USING (" + HOLDER_PK_COLUMN_NAME
+                + ") WHERE a." + ACCT_NO_COLUMN_NAME + " IN (?, ?) ORDER BY a."
+                + ACCT_NO_COLUMN_NAME;
 
-        findAccountByAcctNoStmtLockingForUpdate = connection.prepareStatement("SELECT a."
+        findTwoAccountsLockingForUpdateSql = "SELECT a." + ACCT_PK_COLUMN_NAME + ", a."
                 + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME + ", h."
-                + HOLDER_COLUMN_NAME + " from " + ACCT_TABLE_NAME + " a INNER JOIN "
-                + HOLDER_TABLE_NAME + " h USING (" + HOLDER_PK_COLUMN_NAME + ") WHERE a."
-                + ACCT_NO_COLUMN_NAME + " = ? FOR NO KEY UPDATE");
+                + HOLDER_COLUMN_NAME + ", " + hasParts + " from " + ACCT_TABLE_NAME
+                + " a INNER JOIN " + HOLDER_TABLE_NAME + " h USING (" + HOLDER_PK_COLUMN_NAME
+                + ") WHERE a." + ACCT_NO_COLUMN_NAME + " IN (?, ?) ORDER BY a."
+                + ACCT_NO_COLUMN_NAME + " FOR NO KEY UPDATE OF a";
 
-        findAccountByNameStmt = connection.prepareStatement("SELECT a." + ACCT_NO_COLUMN_NAME
-                + ", a." + BALANCE_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME + " from "
-                + ACCT_TABLE_NAME + " a INNER JOIN "
+        findAccountByNameSql = "SELECT a." + ACCT_NO_COLUMN_NAME + ", " + totalBalance
+                + ", h." + HOLDER_COLUMN_NAME + " from " + ACCT_TABLE_NAME + " a INNER JOIN "
                 + HOLDER_TABLE_NAME + " h ON a." + HOLDER_FK_COLUMN_NAME
-                + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE h." + HOLDER_COLUMN_NAME + " = ?");
+                + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE h." + HOLDER_COLUMN_NAME + " = ?";
 
-        findAllAccountsStmt = connection.prepareStatement("SELECT h." + HOLDER_COLUMN_NAME
-                + ", a." + ACCT_NO_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME + " FROM "
+        findAllAccountsSql = "SELECT h." + HOLDER_COLUMN_NAME
+                + ", a." + ACCT_NO_COLUMN_NAME + ", " + totalBalance + " FROM "
                 + HOLDER_TABLE_NAME + " h INNER JOIN " + ACCT_TABLE_NAME + " a ON a."
-                + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME);
+                + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME;
+
+        exportAccountsSql = "SELECT a." + ACCT_NO_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME
+                + ", " + balanceSum + " FROM " + ACCT_TABLE_NAME + " a INNER JOIN "
+                + HOLDER_TABLE_NAME + " h ON h." + HOLDER_PK_COLUMN_NAME + " = a."
+                + HOLDER_FK_COLUMN_NAME + " ORDER BY a." + ACCT_PK_COLUMN_NAME;
+        copyAccountsOutSql = "COPY (" + exportAccountsSql + ") TO STDOUT (FORMAT csv)";
+
+        findTotalsSql = "SELECT COUNT(*) AS " + ACCT_COUNT_COLUMN_NAME + ", COALESCE(SUM(a."
+                + BALANCE_COLUMN_NAME + "), 0)" + (slotsInBalance ? " + (SELECT COALESCE(SUM("
+                + BALANCE_COLUMN_NAME + "), 0) FROM " + SLOT_TABLE_NAME + ")" : "")
+                + (entriesInBalance ? " + (SELECT COALESCE(SUM(" + AMOUNT_COLUMN_NAME
+                + "), 0) FROM " + ENTRY_TABLE_NAME + ")" : "") + " AS " + BALANCE_COLUMN_NAME
+                + " FROM " + ACCT_TABLE_NAME + " a";
+        String parts;
+        if (slotsInBalance && entriesInBalance) {
+            parts = "SELECT " + ACCT_FK_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + " AS "
+                    + AMOUNT_COLUMN_NAME + " FROM " + SLOT_TABLE_NAME + " UNION ALL SELECT "
+                    + ACCT_FK_COLUMN_NAME + ", " + AMOUNT_COLUMN_NAME + " FROM " + ENTRY_TABLE_NAME;
+        } else if (slotsInBalance) {
+            parts = "SELECT " + ACCT_FK_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + " AS "
+                    + AMOUNT_COLUMN_NAME + " FROM " + SLOT_TABLE_NAME;
+        } else {
+            parts = "SELECT " + ACCT_FK_COLUMN_NAME + ", " + AMOUNT_COLUMN_NAME + " FROM "
+                    + ENTRY_TABLE_NAME;
+        }
+        String partSums = "(SELECT " + ACCT_FK_COLUMN_NAME + ", SUM(" + AMOUNT_COLUMN_NAME + ") AS "
+                + AMOUNT_COLUMN_NAME + " FROM (" + parts + ") parts GROUP BY "
+                + ACCT_FK_COLUMN_NAME + ")";
+        String accountSums;
+        if (slotsInBalance || entriesInBalance) {
+            accountSums = "SUM(a." + BALANCE_COLUMN_NAME + " + COALESCE(p." + AMOUNT_COLUMN_NAME
+                    + ", 0)) AS " + BALANCE_COLUMN_NAME + " FROM " + ACCT_TABLE_NAME
+                    + " a LEFT JOIN " + partSums + " p ON p." + ACCT_FK_COLUMN_NAME + " = a."
+                    + ACCT_PK_COLUMN_NAME;
+        } else {
+            accountSums = "SUM(a." + BALANCE_COLUMN_NAME + ") AS " + BALANCE_COLUMN_NAME
+                    + " FROM " + ACCT_TABLE_NAME + " a";
+        }
+        String holderSums = "(SELECT a." + HOLDER_FK_COLUMN_NAME + ", COUNT(*) AS "
+                + ACCT_COUNT_COLUMN_NAME + ", " + accountSums + " GROUP BY a."
+                + HOLDER_FK_COLUMN_NAME + ")";
+        findHolderSummariesSql = "SELECT h." + HOLDER_COLUMN_NAME + ", x." + ACCT_COUNT_COLUMN_NAME
+                + ", x." + BALANCE_COLUMN_NAME + " FROM " + holderSums + " x INNER JOIN "
+                + HOLDER_TABLE_NAME + " h ON h." + HOLDER_PK_COLUMN_NAME + " = x."
+                + HOLDER_FK_COLUMN_NAME + " ORDER BY x." + BALANCE_COLUMN_NAME + " DESC, h."
+                + HOLDER_COLUMN_NAME + " COLLATE \"C\" LIMIT ?";
+        String withoutParts;
+        if (slotsInBalance && entriesInBalance) {
+            withoutParts = " WHERE NOT " + HAS_SLOTS + " AND NOT " + HAS_ENTRIES;
+        } else if (slotsInBalance || entriesInBalance) {
+            withoutParts = " WHERE NOT " + (slotsInBalance ? HAS_SLOTS : HAS_ENTRIES);
+        } else {
+            withoutParts = "";
+        }
+        String topCandidates = "(SELECT " + ACCT_PK_COLUMN_NAME + " FROM (SELECT a."
+                + ACCT_PK_COLUMN_NAME + " FROM " + ACCT_TABLE_NAME + " a" + withoutParts
+                + " ORDER BY a." + BALANCE_COLUMN_NAME + " DESC LIMIT ?) t"
+                + (slotsInBalance ? " UNION SELECT " + ACCT_FK_COLUMN_NAME + " FROM "
+                + SLOT_TABLE_NAME : "") + (entriesInBalance ? " UNION SELECT "
+                + ACCT_FK_COLUMN_NAME + " FROM " + ENTRY_TABLE_NAME : "") + ")";
+        findTopAccountsSql = "SELECT a." + ACCT_NO_COLUMN_NAME + ", h." + HOLDER_COLUMN_NAME
+                + ", " + totalBalance + " FROM " + topCandidates + " c INNER JOIN "
+                + ACCT_TABLE_NAME + " a ON a." + ACCT_PK_COLUMN_NAME + " = c." + ACCT_FK_COLUMN_NAME
+                + " INNER JOIN " + HOLDER_TABLE_NAME + " h ON h." + HOLDER_PK_COLUMN_NAME + " = a."
+                + HOLDER_FK_COLUMN_NAME + " ORDER BY " + BALANCE_COLUMN_NAME + " DESC, a."
+                + ACCT_PK_COLUMN_NAME + " LIMIT ?";
+
+        findAccountsPageSql = "SELECT a." + ACCT_PK_COLUMN_NAME + ", a." + ACCT_NO_COLUMN_NAME
+                + ", " + totalBalance + ", h." + HOLDER_COLUMN_NAME + " FROM "
+                + ACCT_TABLE_NAME + " a INNER JOIN " + HOLDER_TABLE_NAME + " h ON a."
+                + HOLDER_FK_COLUMN_NAME + " = h." + HOLDER_PK_COLUMN_NAME + " WHERE a."
+                + ACCT_PK_COLUMN_NAME + " > ? ORDER BY a." + ACCT_PK_COLUMN_NAME + " LIMIT ?";
+
+        findAccountsPageByNameSql = "SELECT a." + ACCT_PK_COLUMN_NAME + ", a."
+                + ACCT_NO_COLUMN_NAME + ", " + totalBalance + ", h."
+                + HOLDER_COLUMN_NAME + " FROM " + ACCT_TABLE_NAME + " a INNER JOIN "
+                + HOLDER_TABLE_NAME + " h ON a." + HOLDER_FK_COLUMN_NAME + " = h."
+                + HOLDER_PK_COLUMN_NAME + " WHERE h." + HOLDER_COLUMN_NAME + " = ? AND a."
+                + ACCT_PK_COLUMN_NAME + " > ? ORDER BY a." + ACCT_PK_COLUMN_NAME + " LIMIT ?";
+
+        addToTwoBalancesSql = "UPDATE " + ACCT_TABLE_NAME + " SET " + BALANCE_COLUMN_NAME
+                + " = " + BALANCE_COLUMN_NAME + " + CASE " + ACCT_NO_COLUMN_NAME
+                + " WHEN ? THEN ? ELSE ? END, " + INCREMENT_VERSION + " WHERE "
+                + ACCT_NO_COLUMN_NAME + " IN (?, ?)";
+
+        addToTwoUnchangedBalancesSql = "WITH unchanged AS (SELECT " + ACCT_PK_COLUMN_NAME
+                + " FROM " + ACCT_TABLE_NAME + " WHERE (" + ACCT_NO_COLUMN_NAME + " = ? AND "
+                + VERSION_COLUMN_NAME + " = ?) OR (" + ACCT_NO_COLUMN_NAME + " = ? AND "
+                + VERSION_COLUMN_NAME + " = ?) ORDER BY " + ACCT_NO_COLUMN_NAME
+                + " FOR NO KEY UPDATE) UPDATE " + ACCT_TABLE_NAME + " a SET "
+                + BALANCE_COLUMN_NAME + " = a." + BALANCE_COLUMN_NAME + " + CASE a."
+                + ACCT_NO_COLUMN_NAME + " WHEN ? THEN ? ELSE ? END, " + VERSION_COLUMN_NAME
+                + " = a." + VERSION_COLUMN_NAME + " + 1 FROM unchanged u WHERE a."
+                + ACCT_PK_COLUMN_NAME + " = u." + ACCT_PK_COLUMN_NAME;
+
+        addToBalanceSql = "UPDATE " + ACCT_TABLE_NAME + " a SET " + BALANCE_COLUMN_NAME
+                + " = a." + BALANCE_COLUMN_NAME + " + ?, " + INCREMENT_VERSION + " WHERE a."
+                + ACCT_NO_COLUMN_NAME + " = ? AND a." + BALANCE_COLUMN_NAME + " + ? >= 0";
+
+        addToBalanceReturningSql = addToBalanceSql + " RETURNING " + balanceSum;
+
+        addToBalanceByPKSql = "UPDATE " + ACCT_TABLE_NAME + " SET " + BALANCE_COLUMN_NAME
+                + " = " + BALANCE_COLUMN_NAME + " + ?, " + INCREMENT_VERSION + " WHERE "
+                + ACCT_PK_COLUMN_NAME + " = ?";
+
+        lockAccountSql = "SELECT a." + ACCT_PK_COLUMN_NAME + ", a." + BALANCE_COLUMN_NAME
+                + ", " + hasParts + " FROM " + ACCT_TABLE_NAME + " a WHERE a."
+                + ACCT_NO_COLUMN_NAME + " = ? FOR NO KEY UPDATE";
+
+        hasPartsSql = "SELECT " + hasParts + " FROM " + ACCT_TABLE_NAME + " a WHERE a."
+                + ACCT_NO_COLUMN_NAME + " = ?";
+
+        findSlotsSql = "SELECT " + SLOT_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + " FROM "
+                + SLOT_TABLE_NAME + " WHERE " + ACCT_FK_COLUMN_NAME + " = ?";
+
+        findTotalBalanceSql = "SELECT " + totalBalance + " FROM " + ACCT_TABLE_NAME
+                + " a WHERE a." + ACCT_PK_COLUMN_NAME + " = ?";
 
-        changeBalanceStmt = connection.prepareStatement("UPDATE " + ACCT_TABLE_NAME
-                + " SET " + BALANCE_COLUMN_NAME + " = ? WHERE " + ACCT_NO_COLUMN_NAME + " = ? ");
+        addToSlotSql = "UPDATE " + SLOT_TABLE_NAME + " SET " + BALANCE_COLUMN_NAME + " = "
+                + BALANCE_COLUMN_NAME + " + ? WHERE " + ACCT_FK_COLUMN_NAME + " = ? AND "
+                + SLOT_COLUMN_NAME + " = ?";
 
-        deleteAccountStmt = connection.prepareStatement("DELETE FROM " + ACCT_TABLE_NAME
-                + " WHERE " + ACCT_NO_COLUMN_NAME + " = ?");
+        depositToSlotSql = "INSERT INTO " + SLOT_TABLE_NAME + "(" + ACCT_FK_COLUMN_NAME + ", "
+                + SLOT_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + ") SELECT "
+                + ACCT_PK_COLUMN_NAME + ", ?, ? FROM " + ACCT_TABLE_NAME + " WHERE "
+                + ACCT_NO_COLUMN_NAME + " = ? ON CONFLICT (" + ACCT_FK_COLUMN_NAME + ", "
+                + SLOT_COLUMN_NAME + ") DO UPDATE SET " + BALANCE_COLUMN_NAME + " = "
+                + SLOT_TABLE_NAME + "." + BALANCE_COLUMN_NAME + " + EXCLUDED."
+                + BALANCE_COLUMN_NAME + " RETURNING (SELECT " + balanceSum + " FROM "
+                + ACCT_TABLE_NAME + " a WHERE a." + ACCT_PK_COLUMN_NAME + " = " + SLOT_TABLE_NAME
+                + "." + ACCT_FK_COLUMN_NAME + ") + ?";
+
+        appendEntrySql = "INSERT INTO " + ENTRY_TABLE_NAME + "(" + ACCT_FK_COLUMN_NAME + ", "
+                + AMOUNT_COLUMN_NAME + ") SELECT " + ACCT_PK_COLUMN_NAME + ", ? FROM "
+                + ACCT_TABLE_NAME + " WHERE " + ACCT_NO_COLUMN_NAME + " = ?";
+
+        String entryBalanceAfter = " RETURNING (SELECT " + balanceSum + " FROM "
+                + ACCT_TABLE_NAME + " a WHERE a." + ACCT_PK_COLUMN_NAME + " = " + ENTRY_TABLE_NAME
+                + "." + ACCT_FK_COLUMN_NAME + ") + " + AMOUNT_COLUMN_NAME;
+        appendEntryReturningSql = appendEntrySql + entryBalanceAfter;
+
+        lockAccountByVersionSql = "UPDATE " + ACCT_TABLE_NAME + " SET " + INCREMENT_VERSION
+                + " WHERE " + ACCT_NO_COLUMN_NAME + " = ? RETURNING " + ACCT_PK_COLUMN_NAME;
+
+        appendWithdrawalSql = "INSERT INTO " + ENTRY_TABLE_NAME + "(" + ACCT_FK_COLUMN_NAME
+                + ", " + AMOUNT_COLUMN_NAME + ") SELECT a." + ACCT_PK_COLUMN_NAME + ", ? FROM "
+                + ACCT_TABLE_NAME + " a WHERE a." + ACCT_PK_COLUMN_NAME + " = ? AND "
+                + balanceSum + " + ? >= 0" + entryBalanceAfter;
+
+        String appendTwoEntries = " INSERT INTO " + ENTRY_TABLE_NAME + "(" + ACCT_FK_COLUMN_NAME
+                + ", " + AMOUNT_COLUMN_NAME + ") SELECT " + ACCT_PK_COLUMN_NAME + ", CASE "
+                + ACCT_NO_COLUMN_NAME + " WHEN ? THEN ? ELSE ? END FROM bumped";
+
+        appendTwoEntriesSql = "WITH bumped AS (UPDATE " + ACCT_TABLE_NAME + " SET "
+                + INCREMENT_VERSION + " WHERE " + ACCT_NO_COLUMN_NAME + " IN (?, ?) RETURNING "
+                + ACCT_PK_COLUMN_NAME + ", " + ACCT_NO_COLUMN_NAME + ")" + appendTwoEntries;
+
+        appendTwoUnchangedEntriesSql = "WITH unchanged AS (SELECT " + ACCT_PK_COLUMN_NAME
+                + " FROM " + ACCT_TABLE_NAME + " WHERE (" + ACCT_NO_COLUMN_NAME + " = ? AND "
+                + VERSION_COLUMN_NAME + " = ?) OR (" + ACCT_NO_COLUMN_NAME + " = ? AND "
+                + VERSION_COLUMN_NAME + " = ?) ORDER BY " + ACCT_NO_COLUMN_NAME
+                + " FOR NO KEY UPDATE), bumped AS (UPDATE " + ACCT_TABLE_NAME + " a SET "
+                + VERSION_COLUMN_NAME + " = a." + VERSION_COLUMN_NAME + " + 1 FROM unchanged u"
+                + " WHERE a." + ACCT_PK_COLUMN_NAME + " = u." + ACCT_PK_COLUMN_NAME
+                + " RETURNING a." + ACCT_PK_COLUMN_NAME + ", a." + ACCT_NO_COLUMN_NAME + ")"
+                + appendTwoEntries;
+
+        String entryColumns = ENTRY_PK_COLUMN_NAME + ", " + ACCT_FK_COLUMN_NAME + ", "
+                + AMOUNT_COLUMN_NAME + ", " + CREATED_COLUMN_NAME;
+        compactLedgerSql = "WITH moved AS (DELETE FROM " + ENTRY_TABLE_NAME + " WHERE "
+                + ENTRY_PK_COLUMN_NAME + " IN (SELECT " + ENTRY_PK_COLUMN_NAME + " FROM "
+                + ENTRY_TABLE_NAME + " ORDER BY " + ENTRY_PK_COLUMN_NAME + " LIMIT ?) RETURNING "
+                + entryColumns + "), archived AS (INSERT INTO " + ENTRY_HISTORY_TABLE_NAME + "("
+                + entryColumns + ") SELECT " + entryColumns + " FROM moved), sums AS (SELECT "
+                + ACCT_FK_COLUMN_NAME + ", SUM(" + AMOUNT_COLUMN_NAME + ") AS "
+                + AMOUNT_COLUMN_NAME + " FROM moved GROUP BY " + ACCT_FK_COLUMN_NAME
+                + "), locked AS (SELECT " + ACCT_PK_COLUMN_NAME + " FROM " + ACCT_TABLE_NAME
+                + " WHERE " + ACCT_PK_COLUMN_NAME + " IN (SELECT " + ACCT_FK_COLUMN_NAME
+                + " FROM sums) ORDER BY " + ACCT_NO_COLUMN_NAME + " FOR NO KEY UPDATE), "
+                + "updated AS (UPDATE " + ACCT_TABLE_NAME + " a SET " + BALANCE_COLUMN_NAME
+                + " = a." + BALANCE_COLUMN_NAME + " + s." + AMOUNT_COLUMN_NAME + " FROM sums s"
+                + " WHERE a." + ACCT_PK_COLUMN_NAME + " = s." + ACCT_FK_COLUMN_NAME + " AND a."
+                + ACCT_PK_COLUMN_NAME + " IN (SELECT " + ACCT_PK_COLUMN_NAME + " FROM locked))"
+                + " SELECT COUNT(*) FROM moved";
+
+        createImportTableSql = "CREATE TEMPORARY TABLE IF NOT EXISTS " + IMPORT_TABLE_NAME + " ("
+                + ACCT_NO_COLUMN_NAME + " VARCHAR(10), " + BALANCE_COLUMN_NAME + " INT, "
+                + IMPORT_HOLDER_COLUMN_NAME + " VARCHAR(100))";
+
+        String importColumns = ACCT_NO_COLUMN_NAME + ", " + BALANCE_COLUMN_NAME + ", "
+                + IMPORT_HOLDER_COLUMN_NAME;
+        copyToImportTableSql = "COPY " + IMPORT_TABLE_NAME + "(" + importColumns
+                + ") FROM STDIN (FORMAT csv)";
+
+        String selectImportedHolders = " SELECT DISTINCT " + IMPORT_HOLDER_COLUMN_NAME + " FROM "
+                + IMPORT_TABLE_NAME;
+        createImportedHoldersSql = "INSERT INTO " + HOLDER_TABLE_NAME + "("
+                + HOLDER_COLUMN_NAME + ")" + selectImportedHolders + " ON CONFLICT ("
+                + HOLDER_COLUMN_NAME + ") DO NOTHING";
+
+        createImportedAccountsSql = "INSERT INTO " + ACCT_TABLE_NAME + "(" + ACCT_NO_COLUMN_NAME
+                + ", " + BALANCE_COLUMN_NAME + ", " + HOLDER_FK_COLUMN_NAME + ") SELECT i."
+                + ACCT_NO_COLUMN_NAME + ", i." + BALANCE_COLUMN_NAME + ", h."
+                + HOLDER_PK_COLUMN_NAME + " FROM " + IMPORT_TABLE_NAME + " i INNER JOIN "
+                + HOLDER_TABLE_NAME + " h ON h." + HOLDER_COLUMN_NAME + " = i."
+                + IMPORT_HOLDER_COLUMN_NAME;
+
+        clearImportTableSql = "DELETE FROM " + IMPORT_TABLE_NAME;
+
+        deleteAccountSql = "DELETE FROM " + ACCT_TABLE_NAME
+                + " WHERE " + ACCT_NO_COLUMN_NAME + " = ?";
     }
 
     private void handleException(String failureMsg, Exception cause) throws BankDBException {
         String completeFailureMsg = failureMsg;
-        try {
-            connection.rollback();
-        } catch (SQLException rollbackExc) {
+        SQLException rollbackExc = rollbackTransaction();
+        if (rollbackExc != null) {
             completeFailureMsg = completeFailureMsg +
                     ". Also failed to rollback transaction because of: " + rollbackExc.getMessage();
         }
@@ -322,6 +1617,31 @@ public class BankDAO {
         }
     }
 
+    /**
+     * Rolls back the current thread's transaction, if there is one, and gives the
+     * connection back to the pool. A connection that could not be rolled back is
+     * closed instead of reused.
+     *
+     * @return The exception thrown by the rollback, or <code>null</code> if it
+     *         succeeded.
+     */
+    private SQLException rollbackTransaction() {
+        PooledConnection conn = transactionConnection.get();
+        if (conn == null) {
+            return null;
+        }
+        transactionConnection.remove();
+        rollbackCounter.increment();
+        try {
+            conn.rollback();
+            pool.release(conn, false);
+            return null;
+        } catch (SQLException rollbackExc) {
+            pool.release(conn, true);
+            return rollbackExc;
+        }
+    }
+
     private void closeResultSet(String failureMsg, ResultSet result) throws BankDBException {
         try {
             result.close();
@@ -330,17 +1650,348 @@ public class BankDAO {
         }
     }
 
-    private int createAccountNo() {
-        return (int) Math.floor(Math.random() * Integer.MAX_VALUE);
+    private String encodePageCursor(long key) {
+        return Long.toString(key, Character.MAX_RADIX);
     }
 
-    private int findHolderPKByName(String holderName) throws SQLException {
-        ResultSet result = null;
-        findHolderPKStmt.setString(1, holderName);
-        result = findHolderPKStmt.executeQuery();
-        if (result.next()) {
+    private long decodePageCursor(String cursor) throws BankDBException {
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(cursor, Character.MAX_RADIX);
+        } catch (NumberFormatException nfe) {
+            throw new BankDBException("Invalid page cursor: " + cursor, nfe);
+        }
+    }
+
+    /**
+     * Creates the holder with the specified name, unless it already exists, and
+     * returns its primary key. Both cases require one statement.
+     */
+    private int findOrCreateHolder(String holderName) throws SQLException {
+        PreparedStatement createHolderStmt = connection().prepareStatement(createHolderSql);
+        createHolderStmt.setString(1, holderName);
+        try (ResultSet result = createHolderStmt.executeQuery()) {
+            if (!result.next()) {
+                throw new SQLException("No primary key returned for holder: " + holderName);
+            }
             return result.getInt(HOLDER_PK_COLUMN_NAME);
         }
-        return 0;
+    }
+
+    /**
+     * Loads the specified accounts into the import table with one COPY
+     * statement, whose data is sent as CSV.
+     */
+    private void copyToImportTable(List<? extends AccountDTO> accounts, List<String> acctNos)
+            throws SQLException, IOException {
+        StringBuilder rows = new StringBuilder(accounts.size() * 40);
+        for (int i = 0; i < accounts.size(); i++) {
+            AccountDTO account = accounts.get(i);
+            rows.append(acctNos.get(i)).append(',').append(account.getBalance()).append(",\"")
+                .append(account.getHolderName().replace("\"", "\"\"")).append("\"\n");
+        }
+        connection().getConnection().unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn(copyToImportTableSql, new StringReader(rows.toString()));
+    }
+
+    /**
+     * Creates an account from a row read by one of the locking queries. If the
+     * account has slots or ledger entries, the balance is read again by a new
+     * statement, which sees all changes committed before the account row was
+     * locked.
+     */
+    private Account lockedAccount(ResultSet result) throws SQLException {
+        long balance = result.getInt(BALANCE_COLUMN_NAME);
+        if (result.getBoolean(HAS_PARTS_COLUMN_NAME)) {
+            balance = totalBalance(result.getInt(ACCT_PK_COLUMN_NAME));
+        }
+        return new Account(result.getString(ACCT_NO_COLUMN_NAME),
+                result.getString(HOLDER_COLUMN_NAME), (int) balance);
+    }
+
+    /**
+     * Reads the balance of the account with the specified primary key, that is
+     * the sum of the account row, the slots and the ledger entries.
+     */
+    private long totalBalance(int acctPK) throws SQLException {
+        PreparedStatement findBalanceStmt = connection().prepareStatement(findTotalBalanceSql);
+        findBalanceStmt.setInt(1, acctPK);
+        try (ResultSet result = findBalanceStmt.executeQuery()) {
+            return result.next() ? result.getLong(BALANCE_COLUMN_NAME) : 0;
+        }
+    }
+
+    /**
+     * Adds the specified amount to the account row, unless its balance would
+     * become negative.
+     *
+     * @return The account's balance after the change, or <code>NOT_APPLIED</code>.
+     */
+    private long addToAccountRow(String acctNo, int amount) throws SQLException {
+        PreparedStatement addToBalanceStmt =
+                connection().prepareStatement(addToBalanceReturningSql);
+        addToBalanceStmt.setInt(1, amount);
+        addToBalanceStmt.setString(2, acctNo);
+        addToBalanceStmt.setInt(3, amount);
+        return queryBalance(addToBalanceStmt);
+    }
+
+    /**
+     * Adds the specified amount to a random slot of the specified account. The
+     * slot is created if it does not exist. The account row is not locked.
+     */
+    private long depositToSlot(String acctNo, int amount) throws SQLException {
+        PreparedStatement depositStmt = connection().prepareStatement(depositToSlotSql);
+        depositStmt.setInt(1, ThreadLocalRandom.current().nextInt(hotAccountSlots));
+        depositStmt.setInt(2, amount);
+        depositStmt.setString(3, acctNo);
+        depositStmt.setInt(4, amount);
+        return queryBalance(depositStmt);
+    }
+
+    /**
+     * Withdraws from an account whose account row does not have enough funds, but
+     * which may have funds in its slots or ledger entries. The account row is
+     * locked, so that no other withdrawal can change the balance, and the
+     * balance is read after the lock is taken. Deposits to the slots and the
+     * ledger are still allowed, they only make the balance larger. The
+     * withdrawal is taken from the account row if a deposit has been made to it
+     * since it was rejected, otherwise from a slot with enough funds, or, if
+     * there is no such slot, all slots are moved to the account row, whose
+     * balance may then be negative if the funds are in the ledger. Each slot is
+     * changed by subtracting what was read, so concurrent deposits are not lost.
+     *
+     * @return The balance after the withdrawal, or <code>NOT_APPLIED</code> if
+     *         there is no such account, or if its balance is smaller than the
+     *         withdrawal.
+     */
+    private long withdrawLocking(String acctNo, int amount) throws SQLException {
+        PreparedStatement lockAccountStmt = connection().prepareStatement(lockAccountSql);
+        lockAccountStmt.setString(1, acctNo);
+        int acctPK;
+        try (ResultSet result = lockAccountStmt.executeQuery()) {
+            if (!result.next()) {
+                return NOT_APPLIED;
+            }
+            acctPK = result.getInt(ACCT_PK_COLUMN_NAME);
+            if (result.getInt(BALANCE_COLUMN_NAME) + amount >= 0) {
+                return addToAccountRow(acctPK, amount) ? totalBalance(acctPK) : NOT_APPLIED;
+            }
+            if (!result.getBoolean(HAS_PARTS_COLUMN_NAME)) {
+                return NOT_APPLIED;
+            }
+        }
+        if (totalBalance(acctPK) + amount < 0) {
+            return NOT_APPLIED;
+        }
+
+        PreparedStatement findSlotsStmt = connection().prepareStatement(findSlotsSql);
+        findSlotsStmt.setInt(1, acctPK);
+        Map<Integer, Integer> slotBalances = new LinkedHashMap<>();
+        try (ResultSet result = findSlotsStmt.executeQuery()) {
+            while (result.next()) {
+                slotBalances.put(result.getInt(SLOT_COLUMN_NAME),
+                                 result.getInt(BALANCE_COLUMN_NAME));
+            }
+        }
+        PreparedStatement addToSlotStmt = connection().prepareStatement(addToSlotSql);
+        for (Map.Entry<Integer, Integer> slot : slotBalances.entrySet()) {
+            if (slot.getValue() + amount >= 0) {
+                addToSlotStmt.setInt(1, amount);
+                addToSlotStmt.setInt(2, acctPK);
+                addToSlotStmt.setInt(3, slot.getKey());
+                addToSlotStmt.executeUpdate();
+                return addToAccountRow(acctPK, 0) ? totalBalance(acctPK) : NOT_APPLIED;
+            }
+        }
+        int moved = 0;
+        for (Map.Entry<Integer, Integer> slot : slotBalances.entrySet()) {
+            if (slot.getValue() != 0) {
+                addToSlotStmt.setInt(1, -slot.getValue());
+                addToSlotStmt.setInt(2, acctPK);
+                addToSlotStmt.setInt(3, slot.getKey());
+                addToSlotStmt.addBatch();
+                moved += slot.getValue();
+            }
+        }
+        addToSlotStmt.executeBatch();
+        return addToAccountRow(acctPK, moved + amount) ? totalBalance(acctPK) : NOT_APPLIED;
+    }
+
+    /**
+     * Makes the specified changes to the account rows, in order. Changes to the
+     * accounts in <code>oneAtATime</code> are made one at a time, and a
+     * rejected withdrawal from such an account is retried with
+     * <code>withdrawLocking</code>. All other changes are sent as JDBC batches,
+     * each batch is executed before the next change that is made one at a time.
+     *
+     * @return An array with one element per change, which is <code>true</code> if
+     *         that change was applied.
+     */
+    private boolean[] addToAccountRows(List<BalanceChange> changes, Set<String> oneAtATime)
+            throws SQLException {
+        boolean[] applied = new boolean[changes.size()];
+        PreparedStatement addToBalanceStmt = connection().prepareStatement(addToBalanceSql);
+        List<Integer> batched = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            BalanceChange change = changes.get(i);
+            if (!oneAtATime.contains(change.getAccountNo())) {
+                addToBalanceStmt.setInt(1, change.getAmount());
+                addToBalanceStmt.setString(2, change.getAccountNo());
+                addToBalanceStmt.setInt(3, change.getAmount());
+                addToBalanceStmt.addBatch();
+                batched.add(i);
+                continue;
+            }
+            executeBatch(addToBalanceStmt, batched, applied);
+            long balance = addToAccountRow(change.getAccountNo(), change.getAmount());
+            if (balance == NOT_APPLIED && change.getAmount() < 0) {
+                balance = withdrawLocking(change.getAccountNo(), change.getAmount());
+            }
+            applied[i] = balance != NOT_APPLIED;
+        }
+        executeBatch(addToBalanceStmt, batched, applied);
+        return applied;
+    }
+
+    private void executeBatch(PreparedStatement addToBalanceStmt, List<Integer> batched,
+                              boolean[] applied) throws SQLException {
+        if (batched.isEmpty()) {
+            return;
+        }
+        int[] updatedRows = addToBalanceStmt.executeBatch();
+        for (int i = 0; i < updatedRows.length; i++) {
+            applied[batched.get(i)] = updatedRows[i] == 1;
+        }
+        batched.clear();
+    }
+
+    /**
+     * Returns the numbers of the accounts that have slots or ledger entries,
+     * among those with rejected withdrawals.
+     */
+    private Set<String> findRejectedWithParts(List<BalanceChange> changes, boolean[] applied)
+            throws SQLException {
+        Set<String> accountsWithParts = new HashSet<>();
+        if (!slotsInBalance && !entriesInBalance) {
+            return accountsWithParts;
+        }
+        Set<String> checked = new HashSet<>();
+        PreparedStatement hasPartsStmt = connection().prepareStatement(hasPartsSql);
+        for (int i = 0; i < applied.length; i++) {
+            String acctNo = changes.get(i).getAccountNo();
+            if (applied[i] || changes.get(i).getAmount() >= 0 || !checked.add(acctNo)) {
+                continue;
+            }
+            hasPartsStmt.setString(1, acctNo);
+            try (ResultSet result = hasPartsStmt.executeQuery()) {
+                if (result.next() && result.getBoolean(HAS_PARTS_COLUMN_NAME)) {
+                    accountsWithParts.add(acctNo);
+                }
+            }
+        }
+        return accountsWithParts;
+    }
+
+    private boolean addToAccountRow(int acctPK, int amount) throws SQLException {
+        PreparedStatement addToBalanceStmt = connection().prepareStatement(addToBalanceByPKSql);
+        addToBalanceStmt.setInt(1, amount);
+        addToBalanceStmt.setInt(2, acctPK);
+        return addToBalanceStmt.executeUpdate() == 1;
+    }
+
+    /**
+     * Executes a statement that changes an account, and returns the balance
+     * after the change, or no row if nothing was changed.
+     */
+    private long queryBalance(PreparedStatement changeStmt) throws SQLException {
+        try (ResultSet result = changeStmt.executeQuery()) {
+            return result.next() ? result.getLong(1) : NOT_APPLIED;
+        }
+    }
+
+    /**
+     * Appends the specified amount to the ledger of the specified account.
+     */
+    private long appendEntry(String acctNo, int amount) throws SQLException {
+        PreparedStatement appendStmt = connection().prepareStatement(appendEntryReturningSql);
+        appendStmt.setInt(1, amount);
+        appendStmt.setString(2, acctNo);
+        return queryBalance(appendStmt);
+    }
+
+    /**
+     * Locks the account row by incrementing its version, and appends the
+     * withdrawal to the ledger if the balance, read by a new statement after the
+     * lock is taken, is large enough.
+     */
+    private long appendWithdrawal(String acctNo, int amount) throws SQLException {
+        Integer acctPK = lockAccountByVersion(acctNo);
+        if (acctPK == null) {
+            return NOT_APPLIED;
+        }
+        PreparedStatement appendStmt = connection().prepareStatement(appendWithdrawalSql);
+        appendStmt.setInt(1, amount);
+        appendStmt.setInt(2, acctPK);
+        appendStmt.setInt(3, amount);
+        return queryBalance(appendStmt);
+    }
+
+    /**
+     * Appends the specified changes to the ledger. The account of each
+     * withdrawal is locked, and its balance read, once, and the changes are then
+     * checked in order against the account's running balance. The accepted
+     * changes are appended by one JDBC batch.
+     */
+    private boolean[] appendEntries(List<BalanceChange> changes) throws SQLException {
+        Map<String, Long> balances = new HashMap<>();
+        for (BalanceChange change : changes) {
+            String acctNo = change.getAccountNo();
+            if (change.getAmount() < 0 && !balances.containsKey(acctNo)) {
+                Integer acctPK = lockAccountByVersion(acctNo);
+                balances.put(acctNo, acctPK == null ? null : totalBalance(acctPK));
+            }
+        }
+
+        boolean[] applied = new boolean[changes.size()];
+        List<Integer> appended = new ArrayList<>();
+        PreparedStatement appendStmt = connection().prepareStatement(appendEntrySql);
+        for (int i = 0; i < changes.size(); i++) {
+            BalanceChange change = changes.get(i);
+            Long balance = balances.get(change.getAccountNo());
+            if (change.getAmount() < 0 && (balance == null || balance + change.getAmount() < 0)) {
+                continue;
+            }
+            if (balance != null) {
+                balances.put(change.getAccountNo(), balance + change.getAmount());
+            }
+            appendStmt.setInt(1, change.getAmount());
+            appendStmt.setString(2, change.getAccountNo());
+            appendStmt.addBatch();
+            appended.add(i);
+        }
+        if (!appended.isEmpty()) {
+            int[] appendedRows = appendStmt.executeBatch();
+            for (int i = 0; i < appendedRows.length; i++) {
+                applied[appended.get(i)] = appendedRows[i] == 1;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Locks the specified account's row by incrementing its version.
+     *
+     * @return The account's primary key, or <code>null</code> if there is no such
+     *         account.
+     */
+    private Integer lockAccountByVersion(String acctNo) throws SQLException {
+        PreparedStatement lockStmt = connection().prepareStatement(lockAccountByVersionSql);
+        lockStmt.setString(1, acctNo);
+        try (ResultSet result = lockStmt.executeQuery()) {
+            return result.next() ? result.getInt(ACCT_PK_COLUMN_NAME) : null;
+        }
     }
 }
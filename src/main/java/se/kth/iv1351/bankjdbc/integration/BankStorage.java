@@ -0,0 +1,290 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.AccountPage;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+import se.kth.iv1351.bankjdbc.model.BankTotals;
+import se.kth.iv1351.bankjdbc.model.HolderSummary;
+
+/**
+ * Stores the bank's accounts. This is all the controller needs from the
+ * integration layer, <code>BankDAO</code> stores the accounts in a database,
+ * and <code>InMemoryBankStorage</code> in the process' memory.
+ * <p>
+ * Each thread has its own transaction. Methods that lock accounts leave the
+ * transaction open, all other methods commit it, and with it the changes made
+ * and the locks taken earlier in the same transaction. Implementations must be
+ * thread safe.
+ * <p>
+ * If the system property <code>bankdb.journal.dir</code> is set, every balance
+ * change, opening balance and account deletion is appended to a
+ * <code>BalanceJournal</code> in that directory, before it is committed. A
+ * change that can not be journaled is not committed, and the method that made
+ * it throws <code>BankDBException</code>.
+ */
+public interface BankStorage {
+    /**
+     * Returned by <code>addToBalance</code> if the change was not applied.
+     */
+    long NOT_APPLIED = Long.MIN_VALUE;
+
+    /**
+     * Creates a new account, with a new account number.
+     *
+     * @param account The account to create.
+     * @throws BankDBException If failed to create the specified account.
+     */
+    void createAccount(AccountDTO account) throws BankDBException;
+
+    /**
+     * Creates all specified accounts, each with a new account number, in one
+     * transaction, which is committed when this method returns. Holders that do
+     * not exist are created.
+     *
+     * @param accounts The accounts to create.
+     * @return The numbers of the created accounts, in the same order as the
+     *         specified accounts.
+     * @throws BankDBException If failed to create the accounts. In that case none
+     *                         of them are created.
+     */
+    List<String> createAccounts(List<? extends AccountDTO> accounts) throws BankDBException;
+
+    /**
+     * Searches for the account with the specified account number.
+     *
+     * @param acctNo        The account number.
+     * @param lockExclusive If true, the account is locked until the current
+     *                      transaction is committed, and the transaction is not
+     *                      committed when this method returns. If false, the
+     *                      account is not locked, and the transaction is
+     *                      committed when this method returns.
+     * @return The account with the specified account number, or <code>null</code>
+     *         if there is no such account.
+     * @throws BankDBException If failed to search for the account.
+     */
+    Account findAccountByAcctNo(String acctNo, boolean lockExclusive) throws BankDBException;
+
+    /**
+     * Searches for the two accounts with the specified account numbers, and locks
+     * them until the current transaction is committed. The transaction is not
+     * committed when this method returns. The accounts are always locked in
+     * account number order, therefore concurrent calls for the same two accounts
+     * can not deadlock, whatever the order of the arguments.
+     *
+     * @param acctNo      The number of one of the accounts.
+     * @param otherAcctNo The number of the other account.
+     * @return A list with the accounts that were found, ordered by account number.
+     *         The list has less than two elements if any of the accounts does
+     *         not exist.
+     * @throws BankDBException If failed to search for the accounts.
+     */
+    List<Account> findAccountsByAcctNoLockingForUpdate(String acctNo, String otherAcctNo)
+            throws BankDBException;
+
+    /**
+     * Searches for the two accounts with the specified account numbers, without
+     * locking them. The returned accounts contain their versions, to be passed to
+     * <code>transferBalanceIfUnchanged</code>. The transaction is committed when
+     * this method returns.
+     *
+     * @param acctNo      The number of one of the accounts.
+     * @param otherAcctNo The number of the other account.
+     * @return A list with the accounts that were found, ordered by account number.
+     *         The list has less than two elements if any of the accounts does
+     *         not exist.
+     * @throws BankDBException If failed to search for the accounts.
+     */
+    List<Account> findAccountsByAcctNo(String acctNo, String otherAcctNo)
+            throws BankDBException;
+
+    /**
+     * Searches for all accounts whose holder has the specified name.
+     *
+     * @param holderName The account holder's name
+     * @return A list with all accounts whose holder has the specified name,
+     *         the list is empty if there are no such account.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    List<Account> findAccountsByHolder(String holderName) throws BankDBException;
+
+    /**
+     * Retrieves all existing accounts.
+     *
+     * @return A list with all existing accounts. The list is empty if there are no
+     *         accounts.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    List<Account> findAllAccounts() throws BankDBException;
+
+    /**
+     * Passes all existing accounts to the specified consumer, one at a time,
+     * without first collecting them in a list.
+     *
+     * @param consumer Called once for each account. The account passed to the
+     *                 consumer must not be used after the consumer returns.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    void findAllAccounts(Consumer<? super AccountDTO> consumer) throws BankDBException;
+
+    /**
+     * Writes all existing accounts to the specified export file, one at a time,
+     * without first collecting them in a list. The transaction is committed when
+     * this method returns.
+     *
+     * @param writer The export file.
+     * @return The number of exported accounts.
+     * @throws BankDBException If failed to search for accounts, or to write
+     *                         them.
+     */
+    long exportAccounts(AccountFileWriter writer) throws BankDBException;
+
+    /**
+     * Retrieves one page of accounts, in the order the accounts were created.
+     *
+     * @param holderName The holder whose accounts are retrieved, or
+     *                   <code>null</code> to retrieve accounts of all holders.
+     * @param pageSize   The maximum number of accounts on the page.
+     * @param after      The cursor returned with the previous page, or
+     *                   <code>null</code> to retrieve the first page.
+     * @return The page of accounts.
+     * @throws BankDBException If the cursor is invalid, or if failed to search for
+     *                         accounts.
+     */
+    AccountPage findAccountsPage(String holderName, int pageSize, String after)
+            throws BankDBException;
+
+    /**
+     * Counts all accounts and sums their balances. The transaction is committed
+     * when this method returns.
+     *
+     * @return The number of accounts and the sum of their balances.
+     * @throws BankDBException If failed to count the accounts.
+     */
+    BankTotals findTotals() throws BankDBException;
+
+    /**
+     * Retrieves the holders whose accounts have the highest sums of balances,
+     * highest sum first, and holders with the same sum ordered by name. The
+     * transaction is committed when this method returns.
+     *
+     * @param limit The maximum number of holders to retrieve.
+     * @return A list with the number of accounts and the sum of their balances
+     *         for each retrieved holder.
+     * @throws BankDBException If failed to sum the balances.
+     */
+    List<HolderSummary> findHolderSummaries(int limit) throws BankDBException;
+
+    /**
+     * Retrieves the accounts with the highest balances, highest balance first,
+     * and accounts with the same balance in the order they were created. The
+     * transaction is committed when this method returns.
+     *
+     * @param limit The maximum number of accounts to retrieve.
+     * @return A list with the retrieved accounts.
+     * @throws BankDBException If failed to search for accounts.
+     */
+    List<Account> findTopAccounts(int limit) throws BankDBException;
+
+    /**
+     * Moves the specified amount from one account to another. The accounts
+     * should be locked with <code>findAccountsByAcctNoLockingForUpdate</code>,
+     * and the caller must have checked that the withdrawal is allowed. The
+     * transaction is committed when this method returns.
+     *
+     * @param fromAcctNo The number of the account to withdraw from.
+     * @param toAcctNo   The number of the account to deposit to.
+     * @param amount     The amount to move.
+     * @throws BankDBException If unable to update both accounts.
+     */
+    void transferBalance(String fromAcctNo, String toAcctNo, int amount)
+            throws BankDBException;
+
+    /**
+     * Moves the specified amount from one account to another, but only if
+     * neither account has been updated since the accounts were read by
+     * <code>findAccountsByAcctNo</code>. The caller must have checked that the
+     * withdrawal is allowed. The transaction is committed when this method
+     * returns.
+     *
+     * @param from   The account to withdraw from, as it was read.
+     * @param to     The account to deposit to, as it was read.
+     * @param amount The amount to move.
+     * @return <code>true</code> if the amount was moved, <code>false</code> if
+     *         any of the accounts was updated, or deleted, after it was read.
+     * @throws BankDBException If unable to update the accounts.
+     */
+    boolean transferBalanceIfUnchanged(Account from, Account to, int amount)
+            throws BankDBException;
+
+    /**
+     * Adds the specified amount to the balance of the account with the specified
+     * number, but only if the balance does not become negative. The transaction
+     * is committed when this method returns.
+     *
+     * @param acctNo The number of the account to update.
+     * @param amount The amount to add to the balance, a negative amount is
+     *               withdrawn from the balance.
+     * @return The balance after the change, or <code>NOT_APPLIED</code> if
+     *         there is no such account, or if the balance would have become
+     *         negative.
+     * @throws BankDBException If unable to update the account.
+     */
+    long addToBalance(String acctNo, int amount) throws BankDBException;
+
+    /**
+     * Applies all specified balance changes in one transaction, which is
+     * committed when this method returns. A change is applied only if the
+     * account exists and its balance does not become negative, a change that is
+     * not applied does not prevent the others from being applied.
+     *
+     * @param changes The balance changes to apply. To avoid deadlocks with other
+     *                batches, they should be sorted by account number.
+     * @return An array with one element per change, which is <code>true</code> if
+     *         that change was applied.
+     * @throws BankDBException If unable to apply the batch. In that case none of
+     *                         the changes are applied.
+     */
+    boolean[] addToBalances(List<BalanceChange> changes) throws BankDBException;
+
+    /**
+     * Deletes the account with the specified account number.
+     *
+     * @param acctNo The account to delete.
+     * @throws BankDBException If unable to delete the specified account.
+     */
+    void deleteAccount(String acctNo) throws BankDBException;
+
+    /**
+     * Commits the current transaction.
+     *
+     * @throws BankDBException If unable to commit the current transaction.
+     */
+    void commit() throws BankDBException;
+}
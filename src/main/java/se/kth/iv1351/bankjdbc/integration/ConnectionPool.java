@@ -0,0 +1,275 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of database connections. At most <code>maxSize</code>
+ * connections are open at the same time, a thread that wants a connection
+ * when all are in use waits at most <code>acquireTimeoutMillis</code>
+ * milliseconds. Connections that have been idle for a while are validated
+ * before they are handed out. This class is thread safe.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final long VALIDATE_AFTER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new pool, and opens <code>minSize</code> connections.
+     *
+     * @param url                      The JDBC url of the database.
+     * @param user                     The database user.
+     * @param password                 The database user's password.
+     * @param minSize                  The number of connections opened when the
+     *                                 pool is created.
+     * @param maxSize                  The maximum number of open connections.
+     * @param acquireTimeoutMillis     The maximum time to wait for a free
+     *                                 connection.
+     * @param validationTimeoutSeconds The maximum time to wait for the database
+     *                                 when validating a connection.
+     * @param statementCacheSize       The maximum number of prepared statements
+     *                                 cached per connection, at least 1.
+     * @throws SQLException If unable to open the initial connections.
+     */
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long acquireTimeoutMillis, int validationTimeoutSeconds,
+                          int statementCacheSize) throws SQLException {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Illegal pool size, min: " + minSize
+                                               + ", max: " + maxSize);
+        }
+        if (statementCacheSize < 1) {
+            throw new IllegalArgumentException("Illegal statement cache size: "
+                                               + statementCacheSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        for (int i = 0; i < minSize; i++) {
+            idleConnections.addLast(openConnection());
+            idleCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool. The connection must be given back
+     * by calling <code>release</code>.
+     *
+     * @return A connection with auto commit turned off.
+     * @throws SQLException If no connection became available within the acquire
+     *                      timeout, or if unable to open a new connection.
+     */
+    PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed.");
+        }
+        long waitStart = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLTransientConnectionException("Timed out after "
+                        + acquireTimeoutMillis + " ms waiting for a database connection.");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a "
+                                                      + "database connection.", ie);
+        }
+        recordWait(System.nanoTime() - waitStart);
+
+        try {
+            PooledConnection conn = takeIdleConnection();
+            if (conn == null) {
+                conn = openConnection();
+            }
+            activeCount.incrementAndGet();
+            return conn;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a connection that was borrowed with <code>acquire</code>.
+     *
+     * @param conn   The connection to give back.
+     * @param broken <code>true</code> if the connection shall be closed instead
+     *               of reused, for example because a rollback failed.
+     */
+    void release(PooledConnection conn, boolean broken) {
+        activeCount.decrementAndGet();
+        if (broken || closed) {
+            conn.closeQuietly();
+        } else {
+            conn.markReleased();
+            idleConnections.addFirst(conn);
+            idleCount.incrementAndGet();
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes all idle connections. Connections that are in use are closed when
+     * they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection conn;
+        while ((conn = idleConnections.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            conn.closeQuietly();
+        }
+    }
+
+    /**
+     * @return The maximum number of open connections.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of connections currently borrowed from the pool.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * @return The number of open connections that are not in use.
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * @return The number of threads currently waiting for a connection.
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return The number of connections handed out since the pool was created.
+     */
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /**
+     * @return The number of times a thread gave up waiting for a connection.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * @return The total time, in nanoseconds, threads have waited for a
+     *         connection.
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+
+    /**
+     * @return The longest time, in nanoseconds, a thread has waited for a
+     *         connection.
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * @return A string representation of the pool's current state.
+     */
+    @Override
+    public String toString() {
+        long acquired = getAcquireCount();
+        long meanWaitMicros = acquired == 0 ? 0 : getTotalWaitNanos() / acquired / 1000;
+        return "ConnectionPool: [active: " + getActiveCount() + ", idle: " + getIdleCount()
+               + ", max: " + maxSize + ", waiting: " + getWaitingCount()
+               + ", acquired: " + acquired + ", timeouts: " + getTimeoutCount()
+               + ", mean wait (us): " + meanWaitMicros
+               + ", max wait (us): " + getMaxWaitNanos() / 1000 + "]";
+    }
+
+    private PooledConnection takeIdleConnection() {
+        PooledConnection conn;
+        while ((conn = idleConnections.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (conn.idleNanos() < VALIDATE_AFTER_IDLE_NANOS
+                || conn.isValid(validationTimeoutSeconds)) {
+                return conn;
+            }
+            conn.closeQuietly();
+        }
+        return null;
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, user, password);
+        connection.setAutoCommit(false);
+        return new PooledConnection(connection, statementCacheSize);
+    }
+
+    private void recordWait(long waitNanos) {
+        acquireCount.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+}
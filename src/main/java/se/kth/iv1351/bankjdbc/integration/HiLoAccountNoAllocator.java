@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.locks.ReentrantLock;
+
+import se.kth.iv1351.bankjdbc.model.AccountNumberFormat;
+
+/**
+ * Allocates account numbers in blocks. A block number, the "hi" value, is taken
+ * from a database sequence, and gives the process exclusive use of
+ * <code>BLOCK_SIZE</code> numbers, the "lo" values. Numbers in the block are
+ * then handed out without calling the database. Different processes never get
+ * the same block, so account numbers are unique across processes.
+ * <p>
+ * A lock, rather than <code>synchronized</code>, guards the block, since the
+ * lock is held while the database is called, and a virtual thread blocked
+ * inside <code>synchronized</code> can not release its carrier thread.
+ */
+class HiLoAccountNoAllocator implements AccountNoAllocator {
+    /**
+     * The number of account numbers in a block. Must never be changed for an
+     * existing database, since that would make old and new blocks overlap.
+     */
+    private static final int BLOCK_SIZE = 1000;
+    /**
+     * Numbers from this one have too many digits for an account number.
+     */
+    private static final long MAX_NUMBER = 1_000_000_000L;
+    private static final String NEXT_HI_SQL = "SELECT nextval('account_no_seq')";
+    private final ReentrantLock lock = new ReentrantLock();
+    private long nextNumber = 0;
+    private long blockEnd = 0;
+
+    @Override
+    public String nextAccountNo(Connection connection) throws SQLException {
+        lock.lock();
+        try {
+            if (nextNumber == blockEnd) {
+                long hi = nextHi(connection);
+                nextNumber = hi * BLOCK_SIZE;
+                blockEnd = nextNumber + BLOCK_SIZE;
+            }
+            if (nextNumber >= MAX_NUMBER) {
+                throw new SQLException("All account numbers in account_no_seq are used.");
+            }
+            return AccountNumberFormat.withCheckDigit(nextNumber++);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long nextHi(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet result = stmt.executeQuery(NEXT_HI_SQL)) {
+            result.next();
+            return result.getLong(1);
+        }
+    }
+}
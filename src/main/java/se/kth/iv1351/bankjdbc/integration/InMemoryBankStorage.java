@@ -0,0 +1,645 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.AccountNumberFormat;
+import se.kth.iv1351.bankjdbc.model.AccountPage;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+import se.kth.iv1351.bankjdbc.model.BankTotals;
+import se.kth.iv1351.bankjdbc.model.HolderSummary;
+
+/**
+ * Stores accounts in the process' memory, nothing is saved when the process
+ * ends. This is meant for simulations and stress tests of the controller,
+ * which are not slowed down by a database.
+ * <p>
+ * Accounts are found by their numbers in a <code>LongKeyMap</code>, whose
+ * lookups normally take no lock. Each account has its own lock, so operations
+ * on different accounts never wait for each other. As in a database, an
+ * account locked by <code>findAccountByAcctNo</code> or
+ * <code>findAccountsByAcctNoLockingForUpdate</code> stays locked until the
+ * locking thread's transaction is committed, and accounts are always locked in
+ * account number order. Changes are visible to other threads as soon as they
+ * are made, since there is no rollback. For the same reason, a change is
+ * journaled before it is made, while its accounts are locked, and is not made
+ * if it can not be journaled.
+ */
+public class InMemoryBankStorage implements BankStorage {
+    private static final long FIRST_ACCOUNT_NUMBER = 1000000;
+
+    private final LongKeyMap<StoredAccount> accountsByNo = new LongKeyMap<>();
+    private final NavigableMap<Long, StoredAccount> accountsById = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, NavigableMap<Long, StoredAccount>> accountsByHolder =
+            new ConcurrentHashMap<>();
+    private final AtomicLong nextAccountId = new AtomicLong(1);
+    private final ThreadLocal<List<StoredAccount>> lockedAccounts =
+            ThreadLocal.withInitial(ArrayList::new);
+    private final BalanceJournal journal;
+
+    /**
+     * Creates a new instance without accounts. Balance changes and account
+     * deletions are journaled if the system property
+     * <code>bankdb.journal.dir</code> is set, see
+     * <code>BalanceJournal.fromSystemProperties</code>.
+     *
+     * @throws BankDBException If unable to open the journal.
+     */
+    public InMemoryBankStorage() throws BankDBException {
+        this(BalanceJournal.fromSystemProperties());
+    }
+
+    /**
+     * Creates a new instance without accounts, which journals balance changes
+     * and account deletions to the specified journal.
+     *
+     * @param journal The journal, or <code>null</code> if nothing shall be
+     *                journaled.
+     */
+    public InMemoryBankStorage(BalanceJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public void createAccount(AccountDTO account) throws BankDBException {
+        createAccounts(List.of(account));
+    }
+
+    @Override
+    public List<String> createAccounts(List<? extends AccountDTO> accounts)
+            throws BankDBException {
+        try {
+            List<StoredAccount> created = new ArrayList<>(accounts.size());
+            List<JournalRecord> records = new ArrayList<>();
+            for (AccountDTO account : accounts) {
+                StoredAccount acct = newAccount(account);
+                created.add(acct);
+                if (journal != null && acct.balance != 0) {
+                    records.add(journalRecord(JournalRecord.Type.BALANCE_CHANGE, acct.acctNo,
+                                              acct.balance, acct.balance));
+                }
+            }
+            journal(records);
+            List<String> acctNos = new ArrayList<>(accounts.size());
+            for (StoredAccount acct : created) {
+                store(acct);
+                acctNos.add(acct.acctNo);
+            }
+            return acctNos;
+        } finally {
+            commit();
+        }
+    }
+
+    @Override
+    public Account findAccountByAcctNo(String acctNo, boolean lockExclusive) {
+        StoredAccount acct = find(acctNo);
+        if (!lockExclusive) {
+            commit();
+            return acct == null ? null : acct.toAccount();
+        }
+        if (acct == null) {
+            return null;
+        }
+        lock(acct);
+        return acct.deleted ? null : acct.toAccount();
+    }
+
+    @Override
+    public List<Account> findAccountsByAcctNoLockingForUpdate(String acctNo, String otherAcctNo) {
+        List<Account> found = new ArrayList<>();
+        for (StoredAccount acct : findInLockOrder(acctNo, otherAcctNo)) {
+            lock(acct);
+            if (!acct.deleted) {
+                found.add(acct.toAccount());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Account> findAccountsByAcctNo(String acctNo, String otherAcctNo) {
+        commit();
+        List<Account> found = new ArrayList<>();
+        for (StoredAccount acct : findInLockOrder(acctNo, otherAcctNo)) {
+            acct.lock.lock();
+            try {
+                if (!acct.deleted) {
+                    found.add(acct.toAccount());
+                }
+            } finally {
+                acct.lock.unlock();
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Account> findAccountsByHolder(String holderName) {
+        commit();
+        NavigableMap<Long, StoredAccount> holderAccounts = accountsByHolder.get(holderName);
+        if (holderAccounts == null) {
+            return new ArrayList<>();
+        }
+        return toAccounts(holderAccounts.values());
+    }
+
+    @Override
+    public List<Account> findAllAccounts() {
+        commit();
+        return toAccounts(accountsById.values());
+    }
+
+    @Override
+    public void findAllAccounts(Consumer<? super AccountDTO> consumer) {
+        commit();
+        for (StoredAccount acct : accountsById.values()) {
+            consumer.accept(acct.toAccount());
+        }
+    }
+
+    @Override
+    public long exportAccounts(AccountFileWriter writer) throws BankDBException {
+        commit();
+        long exported = 0;
+        try {
+            for (StoredAccount acct : accountsById.values()) {
+                writer.write(acct.acctNo, acct.holderName, acct.balance);
+                exported++;
+            }
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not export accounts.", ioe);
+        }
+        return exported;
+    }
+
+    @Override
+    public BankTotals findTotals() {
+        commit();
+        long count = 0;
+        long total = 0;
+        for (StoredAccount acct : accountsById.values()) {
+            count++;
+            total += acct.balance;
+        }
+        return new BankTotals(count, total);
+    }
+
+    @Override
+    public List<HolderSummary> findHolderSummaries(int limit) {
+        commit();
+        List<HolderSummary> summaries = new ArrayList<>();
+        for (NavigableMap<Long, StoredAccount> holderAccounts : accountsByHolder.values()) {
+            int count = 0;
+            long total = 0;
+            String holderName = null;
+            for (StoredAccount acct : holderAccounts.values()) {
+                count++;
+                total += acct.balance;
+                holderName = acct.holderName;
+            }
+            if (count > 0) {
+                summaries.add(new HolderSummary(holderName, count, total));
+            }
+        }
+        summaries.sort(Comparator.comparingLong(HolderSummary::getTotalBalance).reversed()
+                                 .thenComparing(HolderSummary::getHolderName));
+        return new ArrayList<>(summaries.subList(0, Math.min(limit, summaries.size())));
+    }
+
+    /**
+     * Keeps the highest accounts seen so far in a heap of at most
+     * <code>limit</code> accounts, whose root is the lowest of them. Accounts
+     * with the same balance are ordered by their ids, like in
+     * <code>BankDAO</code>, and since the accounts are visited in id order, a
+     * later account replaces the root only if its balance is higher.
+     */
+    @Override
+    public List<Account> findTopAccounts(int limit) {
+        commit();
+        Comparator<Map.Entry<Long, Account>> lowestFirst =
+                Comparator.comparingInt((Map.Entry<Long, Account> entry) ->
+                                                entry.getValue().getBalance())
+                          .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+        PriorityQueue<Map.Entry<Long, Account>> highest =
+                new PriorityQueue<>(Math.max(limit, 1), lowestFirst);
+        for (StoredAccount acct : accountsById.values()) {
+            int balance = acct.balance;
+            if (highest.size() < limit) {
+                highest.add(Map.entry(acct.id, acct.toAccount()));
+            } else if (limit > 0 && balance > highest.peek().getValue().getBalance()) {
+                highest.poll();
+                highest.add(Map.entry(acct.id, acct.toAccount()));
+            }
+        }
+        List<Map.Entry<Long, Account>> ranked = new ArrayList<>(highest);
+        ranked.sort(lowestFirst.reversed());
+        List<Account> accounts = new ArrayList<>(ranked.size());
+        for (Map.Entry<Long, Account> entry : ranked) {
+            accounts.add(entry.getValue());
+        }
+        return accounts;
+    }
+
+    @Override
+    public AccountPage findAccountsPage(String holderName, int pageSize, String after)
+            throws BankDBException {
+        commit();
+        long afterId = decodePageCursor(after);
+        NavigableMap<Long, StoredAccount> searched = holderName == null
+                ? accountsById : accountsByHolder.get(holderName);
+        if (searched == null) {
+            return new AccountPage(new ArrayList<>(), null);
+        }
+        List<Account> accounts = new ArrayList<>();
+        long lastId = afterId;
+        boolean hasMore = false;
+        for (StoredAccount acct : searched.tailMap(afterId, false).values()) {
+            if (accounts.size() == pageSize) {
+                hasMore = true;
+                break;
+            }
+            lastId = acct.id;
+            accounts.add(acct.toAccount());
+        }
+        return new AccountPage(accounts, hasMore ? Long.toString(lastId, Character.MAX_RADIX) : null);
+    }
+
+    @Override
+    public void transferBalance(String fromAcctNo, String toAcctNo, int amount)
+            throws BankDBException {
+        try {
+            List<StoredAccount> accounts = findInLockOrder(fromAcctNo, toAcctNo);
+            for (StoredAccount acct : accounts) {
+                lock(acct);
+            }
+            if (accounts.size() != 2 || accounts.get(0).deleted || accounts.get(1).deleted) {
+                throw new BankDBException("Could not update account: " + fromAcctNo + ", "
+                                          + toAcctNo);
+            }
+            StoredAccount from = accounts.get(0).acctNo.equals(fromAcctNo)
+                    ? accounts.get(0) : accounts.get(1);
+            StoredAccount to = from == accounts.get(0) ? accounts.get(1) : accounts.get(0);
+            checkRange(from, -(long) amount);
+            checkRange(to, amount);
+            journalTransfer(from, to, amount);
+            from.add(-amount);
+            to.add(amount);
+        } finally {
+            commit();
+        }
+    }
+
+    @Override
+    public boolean transferBalanceIfUnchanged(Account from, Account to, int amount)
+            throws BankDBException {
+        try {
+            List<StoredAccount> accounts = findInLockOrder(from.getAccountNo(), to.getAccountNo());
+            for (StoredAccount acct : accounts) {
+                lock(acct);
+            }
+            if (accounts.size() != 2) {
+                return false;
+            }
+            StoredAccount storedFrom = accounts.get(0).acctNo.equals(from.getAccountNo())
+                    ? accounts.get(0) : accounts.get(1);
+            StoredAccount storedTo = storedFrom == accounts.get(0) ? accounts.get(1) : accounts.get(0);
+            if (storedFrom.deleted || storedTo.deleted || storedFrom.version != from.getVersion()
+                || storedTo.version != to.getVersion()) {
+                return false;
+            }
+            checkRange(storedFrom, -(long) amount);
+            checkRange(storedTo, amount);
+            journalTransfer(storedFrom, storedTo, amount);
+            storedFrom.add(-amount);
+            storedTo.add(amount);
+            return true;
+        } finally {
+            commit();
+        }
+    }
+
+    @Override
+    public long addToBalance(String acctNo, int amount) throws BankDBException {
+        try {
+            StoredAccount acct = find(acctNo);
+            if (acct == null) {
+                return NOT_APPLIED;
+            }
+            lock(acct);
+            if (acct.deleted || acct.balance + (long) amount < 0) {
+                return NOT_APPLIED;
+            }
+            checkRange(acct, amount);
+            journalChange(acct.acctNo, amount, acct.balance + (long) amount);
+            acct.add(amount);
+            return acct.balance;
+        } finally {
+            commit();
+        }
+    }
+
+    @Override
+    public boolean[] addToBalances(List<BalanceChange> changes) throws BankDBException {
+        boolean[] applied = new boolean[changes.size()];
+        try {
+            StoredAccount[] accounts = new StoredAccount[changes.size()];
+            for (int i = 0; i < accounts.length; i++) {
+                accounts[i] = find(changes.get(i).getAccountNo());
+                if (accounts[i] != null && !accounts[i].lock.isHeldByCurrentThread()) {
+                    lock(accounts[i]);
+                }
+            }
+            long[] balances = new long[accounts.length];
+            for (int i = 0; i < accounts.length; i++) {
+                if (accounts[i] != null) {
+                    balances[i] = accounts[i].balance;
+                }
+            }
+            for (int i = 0; i < accounts.length; i++) {
+                StoredAccount acct = accounts[i];
+                int amount = changes.get(i).getAmount();
+                if (acct == null || acct.deleted) {
+                    continue;
+                }
+                balances[i] = runningBalance(accounts, balances, i);
+                long balance = balances[i] + amount;
+                if (balance < 0) {
+                    continue;
+                }
+                if (balance > Integer.MAX_VALUE) {
+                    throw new BankDBException("Balance out of range, account: " + acct.acctNo);
+                }
+                balances[i] = balance;
+                applied[i] = true;
+            }
+            List<JournalRecord> records = new ArrayList<>();
+            for (int i = 0; i < accounts.length && journal != null; i++) {
+                if (applied[i]) {
+                    records.add(journalRecord(JournalRecord.Type.BALANCE_CHANGE,
+                                              accounts[i].acctNo, changes.get(i).getAmount(),
+                                              balances[i]));
+                }
+            }
+            journal(records);
+            for (int i = 0; i < accounts.length; i++) {
+                if (applied[i]) {
+                    accounts[i].add(changes.get(i).getAmount());
+                }
+            }
+            return applied;
+        } finally {
+            commit();
+        }
+    }
+
+    @Override
+    public void deleteAccount(String acctNo) throws BankDBException {
+        try {
+            StoredAccount acct = find(acctNo);
+            if (acct == null) {
+                throw new BankDBException("Could not delete account: " + acctNo);
+            }
+            lock(acct);
+            if (acct.deleted) {
+                throw new BankDBException("Could not delete account: " + acctNo);
+            }
+            journal(List.of(journalRecord(JournalRecord.Type.ACCOUNT_DELETION, acct.acctNo, 0,
+                                          JournalRecord.UNKNOWN_BALANCE)));
+            acct.deleted = true;
+            accountsByNo.remove(keyOf(acctNo));
+            accountsById.remove(acct.id);
+            accountsByHolder.get(acct.holderName).remove(acct.id);
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Releases all accounts locked by the current thread.
+     */
+    @Override
+    public void commit() {
+        List<StoredAccount> locked = lockedAccounts.get();
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            locked.get(i).lock.unlock();
+        }
+        locked.clear();
+    }
+
+    /**
+     * @return The number of accounts.
+     */
+    public int getAccountCount() {
+        return accountsByNo.size();
+    }
+
+    /**
+     * Creates a new account with a new account number, which is not stored.
+     */
+    private StoredAccount newAccount(AccountDTO account) {
+        long id = nextAccountId.getAndIncrement();
+        return new StoredAccount(id, AccountNumberFormat.withCheckDigit(FIRST_ACCOUNT_NUMBER + id),
+                                 account.getHolderName(), account.getBalance());
+    }
+
+    private void store(StoredAccount created) {
+        accountsById.put(created.id, created);
+        accountsByHolder.computeIfAbsent(created.holderName, name -> new ConcurrentSkipListMap<>())
+                        .put(created.id, created);
+        accountsByNo.put(keyOf(created.acctNo), created);
+    }
+
+    /**
+     * Appends the specified records to the journal, if there is one.
+     */
+    private void journal(List<JournalRecord> records) throws BankDBException {
+        if (journal != null && !records.isEmpty()) {
+            journal.append(records);
+        }
+    }
+
+    private void journalChange(String acctNo, int amount, long balance) throws BankDBException {
+        if (journal != null) {
+            journal(List.of(journalRecord(JournalRecord.Type.BALANCE_CHANGE, acctNo, amount,
+                                          balance)));
+        }
+    }
+
+    private void journalTransfer(StoredAccount from, StoredAccount to, int amount)
+            throws BankDBException {
+        if (journal == null) {
+            return;
+        }
+        journal(List.of(journalRecord(JournalRecord.Type.BALANCE_CHANGE, from.acctNo, -amount,
+                                      from.balance - (long) amount),
+                        journalRecord(JournalRecord.Type.BALANCE_CHANGE, to.acctNo, amount,
+                                      to.balance + (long) amount)));
+    }
+
+    private JournalRecord journalRecord(JournalRecord.Type type, String acctNo, int delta,
+                                        long balance) {
+        return new JournalRecord(type, acctNo, delta, balance, System.currentTimeMillis());
+    }
+
+    private StoredAccount find(String acctNo) {
+        long key = keyOf(acctNo);
+        return key == 0 ? null : accountsByNo.get(key);
+    }
+
+    /**
+     * Returns the specified accounts that exist, ordered by account number.
+     */
+    private List<StoredAccount> findInLockOrder(String acctNo, String otherAcctNo) {
+        List<StoredAccount> found = new ArrayList<>(2);
+        StoredAccount acct = find(acctNo);
+        StoredAccount other = find(otherAcctNo);
+        if (acct != null) {
+            found.add(acct);
+        }
+        if (other != null && other != acct) {
+            found.add(other);
+        }
+        if (found.size() == 2 && found.get(0).acctNo.compareTo(found.get(1).acctNo) > 0) {
+            Collections.swap(found, 0, 1);
+        }
+        return found;
+    }
+
+    /**
+     * Locks the specified account until the current transaction is committed.
+     */
+    private void lock(StoredAccount acct) {
+        acct.lock.lock();
+        lockedAccounts.get().add(acct);
+    }
+
+    /**
+     * Returns the balance of the account of change <code>index</code>, including
+     * the earlier changes to the same account in the same batch. Element
+     * <code>i</code> of <code>balances</code> is the balance after change
+     * <code>i</code>, or the stored balance if there is no earlier change.
+     */
+    private long runningBalance(StoredAccount[] accounts, long[] balances, int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            if (accounts[i] == accounts[index]) {
+                return balances[i];
+            }
+        }
+        return balances[index];
+    }
+
+    private void checkRange(StoredAccount acct, long amount) throws BankDBException {
+        long balance = acct.balance + amount;
+        if (balance > Integer.MAX_VALUE || balance < Integer.MIN_VALUE) {
+            throw new BankDBException("Balance out of range, account: " + acct.acctNo);
+        }
+    }
+
+    private long decodePageCursor(String cursor) throws BankDBException {
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(cursor, Character.MAX_RADIX);
+        } catch (NumberFormatException nfe) {
+            throw new BankDBException("Invalid page cursor: " + cursor, nfe);
+        }
+    }
+
+    private List<Account> toAccounts(Iterable<StoredAccount> stored) {
+        List<Account> accounts = new ArrayList<>();
+        for (StoredAccount acct : stored) {
+            accounts.add(acct.toAccount());
+        }
+        return accounts;
+    }
+
+    /**
+     * Returns the key of the specified account number in
+     * <code>accountsByNo</code>. A leading one is added, so that numbers that
+     * differ only in leading zeros get different keys.
+     *
+     * @return The key, or zero if the specified string is not an account number.
+     */
+    private static long keyOf(String acctNo) {
+        if (acctNo == null || acctNo.isEmpty() || acctNo.length() > AccountNumberFormat.MAX_LENGTH) {
+            return 0;
+        }
+        long key = 1;
+        for (int i = 0; i < acctNo.length(); i++) {
+            char digit = acctNo.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return 0;
+            }
+            key = key * 10 + digit - '0';
+        }
+        return key;
+    }
+
+    /**
+     * An account as it is stored. The balance and version are only changed
+     * while the account is locked, but may be read without the lock.
+     */
+    private static final class StoredAccount {
+        private final long id;
+        private final String acctNo;
+        private final String holderName;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile int balance;
+        private volatile long version;
+        private volatile boolean deleted;
+
+        private StoredAccount(long id, String acctNo, String holderName, int balance) {
+            this.id = id;
+            this.acctNo = acctNo;
+            this.holderName = holderName;
+            this.balance = balance;
+        }
+
+        private void add(int amount) {
+            balance += amount;
+            version++;
+        }
+
+        private Account toAccount() {
+            return new Account(acctNo, holderName, balance, version);
+        }
+    }
+}
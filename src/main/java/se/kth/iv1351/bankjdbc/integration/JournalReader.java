@@ -0,0 +1,231 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads the segments written by <code>BalanceJournal</code>, in the order they
+ * were written. Each segment is memory-mapped and read sequentially, so the
+ * journal is read as fast as the disk allows. Reading a segment stops at the
+ * first record whose length or checksum is wrong, which happens if the
+ * operating system crashed while the record was written. The rest of that
+ * segment is skipped, and counted as corrupt. Segments written before records
+ * had a type, in format version 1, are read as balance changes.
+ */
+public class JournalReader {
+    private final Path dir;
+    private long recordCount;
+    private long byteCount;
+    private int segmentCount;
+    private int corruptSegmentCount;
+
+    /**
+     * Creates a new instance, which reads the journal in the specified
+     * directory.
+     *
+     * @param dir The directory of the journal's segments.
+     */
+    public JournalReader(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Passes each record in the journal to the specified consumer, in the order
+     * the records were written.
+     *
+     * @param consumer Called once for each record.
+     * @throws BankDBException If unable to read the journal.
+     */
+    public void forEach(Consumer<? super JournalRecord> consumer) throws BankDBException {
+        try {
+            for (Path segmentPath : findSegments(dir)) {
+                readSegment(segmentPath, consumer);
+            }
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not read the balance journal in: " + dir, ioe);
+        }
+    }
+
+    /**
+     * Rebuilds the balance of each account in the journal, by summing the
+     * changes of the account. The result is the account's current balance if
+     * the journal has been written since the account was created. Accounts
+     * that were deleted are left out.
+     *
+     * @return A map from account number to balance.
+     * @throws BankDBException If unable to read the journal.
+     */
+    public Map<String, Long> rebuildBalances() throws BankDBException {
+        Map<String, Long> balances = new HashMap<>();
+        forEach(record -> {
+            if (record.getType() == JournalRecord.Type.ACCOUNT_DELETION) {
+                balances.remove(record.getAccountNo());
+            } else {
+                balances.merge(record.getAccountNo(), (long) record.getDelta(), Long::sum);
+            }
+        });
+        return balances;
+    }
+
+    /**
+     * @return The number of records read.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return The number of bytes read, excluding the unused end of each
+     *         segment.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return The number of segments read.
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return The number of segments whose end could not be read, since a
+     *         record was corrupt.
+     */
+    public int getCorruptSegmentCount() {
+        return corruptSegmentCount;
+    }
+
+    /**
+     * Returns the segments in the specified directory, ordered by segment
+     * number.
+     */
+    static List<Path> findSegments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                BalanceJournal.SEGMENT_PREFIX + "*" + BalanceJournal.SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        segments.sort((segment, other) -> Long.compare(segmentNo(segment), segmentNo(other)));
+        return segments;
+    }
+
+    /**
+     * Returns the number of the specified segment, which is part of its name.
+     */
+    static long segmentNo(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(BalanceJournal.SEGMENT_PREFIX.length(),
+                name.length() - BalanceJournal.SEGMENT_SUFFIX.length()));
+    }
+
+    static String segmentFileName(long segmentNo) {
+        return String.format("%s%019d%s", BalanceJournal.SEGMENT_PREFIX, segmentNo,
+                             BalanceJournal.SEGMENT_SUFFIX);
+    }
+
+    private void readSegment(Path segmentPath, Consumer<? super JournalRecord> consumer)
+            throws IOException {
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        segmentCount++;
+        if (segment.remaining() < BalanceJournal.SEGMENT_HEADER_BYTES
+            || segment.getInt() != BalanceJournal.MAGIC) {
+            corruptSegmentCount++;
+            return;
+        }
+        int formatVersion = segment.getInt();
+        if (formatVersion != 1 && formatVersion != BalanceJournal.FORMAT_VERSION) {
+            corruptSegmentCount++;
+            return;
+        }
+        boolean hasType = formatVersion != 1;
+        int fixedPayloadBytes = hasType ? BalanceJournal.FIXED_PAYLOAD_BYTES
+                                        : BalanceJournal.FIXED_PAYLOAD_BYTES - 1;
+        JournalRecord.Type[] types = JournalRecord.Type.values();
+        segment.getLong();
+        CRC32C checksum = new CRC32C();
+        byte[] acctNoBytes = new byte[255];
+        while (segment.remaining() >= BalanceJournal.RECORD_HEADER_BYTES) {
+            int recordStart = segment.position();
+            int payloadBytes = segment.getInt();
+            if (payloadBytes == 0) {
+                break;
+            }
+            int expectedChecksum = segment.getInt();
+            if (payloadBytes < fixedPayloadBytes || payloadBytes > segment.remaining()) {
+                corruptSegmentCount++;
+                break;
+            }
+            checksum.reset();
+            checksum.update(segment.slice(segment.position(), payloadBytes));
+            int acctNoLength = segment.get(segment.position() + fixedPayloadBytes - 1) & 0xff;
+            int typeOrdinal = hasType ? segment.get(segment.position() + fixedPayloadBytes - 2)
+                                      : JournalRecord.Type.BALANCE_CHANGE.ordinal();
+            if ((int) checksum.getValue() != expectedChecksum
+                || acctNoLength != payloadBytes - fixedPayloadBytes
+                || typeOrdinal < 0 || typeOrdinal >= types.length) {
+                corruptSegmentCount++;
+                break;
+            }
+            long timestamp = segment.getLong();
+            long balance = segment.getLong();
+            int delta = segment.getInt();
+            if (hasType) {
+                segment.get();
+            }
+            segment.get();
+            segment.get(acctNoBytes, 0, acctNoLength);
+            recordCount++;
+            byteCount += segment.position() - recordStart;
+            consumer.accept(new JournalRecord(types[typeOrdinal],
+                                              new String(acctNoBytes, 0, acctNoLength,
+                                                         StandardCharsets.US_ASCII),
+                                              delta, balance, timestamp));
+        }
+        byteCount += BalanceJournal.SEGMENT_HEADER_BYTES;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+/**
+ * One record of the balance journal, see <code>BalanceJournal</code>. A record
+ * is either a balance change, or the deletion of an account. Instances are
+ * immutable.
+ */
+public class JournalRecord {
+    /**
+     * What a record tells about its account.
+     */
+    public enum Type {
+        /**
+         * The account's balance was changed. This is also used for the opening
+         * balance of a new account.
+         */
+        BALANCE_CHANGE,
+        /**
+         * The account was deleted.
+         */
+        ACCOUNT_DELETION
+    }
+
+    /**
+     * The balance of a record whose balance after the change is not known, for
+     * example because the change was applied together with other changes.
+     */
+    public static final long UNKNOWN_BALANCE = Long.MIN_VALUE;
+
+    private final Type type;
+    private final String acctNo;
+    private final int delta;
+    private final long balance;
+    private final long timestampMillis;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param type            What the record tells about the account.
+     * @param acctNo          The number of the changed account.
+     * @param delta           The amount that was added to the balance, negative
+     *                        for a withdrawal. Zero for a deletion.
+     * @param balance         The balance after the change, or
+     *                        <code>UNKNOWN_BALANCE</code>, which is also
+     *                        the balance of a deletion.
+     * @param timestampMillis When the change was journaled, in milliseconds
+     *                        since the epoch.
+     */
+    public JournalRecord(Type type, String acctNo, int delta, long balance,
+                         long timestampMillis) {
+        this.type = type;
+        this.acctNo = acctNo;
+        this.delta = delta;
+        this.balance = balance;
+        this.timestampMillis = timestampMillis;
+    }
+
+    /**
+     * @return What the record tells about the account.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The number of the changed account.
+     */
+    public String getAccountNo() {
+        return acctNo;
+    }
+
+    /**
+     * @return The amount that was added to the balance, negative for a
+     *         withdrawal.
+     */
+    public int getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return The balance after the change, or <code>UNKNOWN_BALANCE</code>.
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return When the change was journaled, in milliseconds since the epoch.
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord: [type: " + type + ", account number: " + acctNo + ", delta: " + delta
+               + ", balance: " + (balance == UNKNOWN_BALANCE ? "unknown" : balance)
+               + ", timestamp: " + timestampMillis + "]";
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import se.kth.iv1351.bankjdbc.metrics.Counter;
+import se.kth.iv1351.bankjdbc.metrics.Metrics;
+
+/**
+ * Periodically calls <code>BankDAO.compactLedger</code>, so that the ledger
+ * only holds the entries appended since the last compaction. A failed
+ * compaction is counted, and retried at the next interval.
+ */
+class LedgerCompactor {
+    private final BankDAO bankDb;
+    private final Counter failureCounter = Metrics.counter("BankDAO", "compactLedgerFailures");
+
+    /**
+     * Creates a new instance, and starts the thread that compacts the ledger.
+     *
+     * @param bankDb         The DAO whose ledger is compacted.
+     * @param intervalMillis The time between the end of one compaction and the
+     *                       start of the next.
+     */
+    LedgerCompactor(BankDAO bankDb, long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("Illegal compaction interval (ms): "
+                                               + intervalMillis);
+        }
+        this.bankDb = bankDb;
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread compactor = new Thread(task, "ledger-compactor");
+            compactor.setDaemon(true);
+            return compactor;
+        });
+        scheduler.scheduleWithFixedDelay(this::compact, intervalMillis, intervalMillis,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    private void compact() {
+        try {
+            bankDb.compactLedger();
+        } catch (BankDBException | RuntimeException e) {
+            failureCounter.increment();
+        }
+    }
+}
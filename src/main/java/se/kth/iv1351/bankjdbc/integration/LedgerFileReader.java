@@ -0,0 +1,137 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+import se.kth.iv1351.bankjdbc.model.LedgerReport;
+
+/**
+ * Reads a ledger file one line at a time, the whole file is never kept in
+ * memory. Each line is either <code>deposit &lt;account number&gt;
+ * &lt;amount&gt;</code> or <code>withdraw &lt;account number&gt;
+ * &lt;amount&gt;</code>. Empty lines and lines starting with <code>#</code> are
+ * ignored.
+ */
+public class LedgerFileReader implements AutoCloseable {
+    private static final String DEPOSIT = "deposit";
+    private static final String WITHDRAW = "withdraw";
+    private final String fileName;
+    private final BufferedReader reader;
+    private int lineNo = 0;
+
+    /**
+     * Opens the specified ledger file.
+     *
+     * @param fileName The path of the ledger file.
+     * @throws BankDBException If unable to open the file.
+     */
+    public LedgerFileReader(String fileName) throws BankDBException {
+        this.fileName = fileName;
+        try {
+            reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not open ledger file: " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Reads the next balance change. Malformed lines are skipped and recorded as
+     * rejected in the specified report, with the reason but not the line's
+     * content.
+     *
+     * @param report The report where malformed lines are recorded.
+     * @return The next balance change, or <code>null</code> if the end of the
+     *         file is reached.
+     * @throws BankDBException If unable to read the file.
+     */
+    public BalanceChange readNext(LedgerReport report) throws BankDBException {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                BalanceChange change = parseLine(trimmed, report);
+                if (change != null) {
+                    return change;
+                }
+            }
+            return null;
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not read line " + (lineNo + 1)
+                                      + " of ledger file: " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws BankDBException If unable to close the file.
+     */
+    @Override
+    public void close() throws BankDBException {
+        try {
+            reader.close();
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not close ledger file: " + fileName, ioe);
+        }
+    }
+
+    private BalanceChange parseLine(String line, LedgerReport report) {
+        String[] tokens = line.split("\\s+");
+        if (tokens.length != 3) {
+            report.addRejected(lineNo, "malformed line: expected 3 words, found "
+                                       + tokens.length);
+            return null;
+        }
+        int amount;
+        try {
+            amount = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException nfe) {
+            report.addRejected(lineNo, "malformed line: amount is not an integer");
+            return null;
+        }
+        if (amount < 0) {
+            report.addRejected(lineNo, "malformed line: negative amount");
+            return null;
+        }
+        if (tokens[0].equalsIgnoreCase(DEPOSIT)) {
+            return new BalanceChange(tokens[1], amount, lineNo);
+        }
+        if (tokens[0].equalsIgnoreCase(WITHDRAW)) {
+            return new BalanceChange(tokens[1], -amount, lineNo);
+        }
+        report.addRejected(lineNo, "malformed line: unknown operation, expected "
+                                   + DEPOSIT + " or " + WITHDRAW);
+        return null;
+    }
+}
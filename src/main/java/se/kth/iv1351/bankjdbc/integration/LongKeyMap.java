@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A hash map from <code>long</code> keys to objects, which never boxes the
+ * keys. The entries are stored in two parallel arrays, with open addressing and
+ * linear probing, and the arrays are doubled when they become half full. A
+ * removed entry leaves its key behind, which is reused if the same key is put
+ * again, and dropped when the arrays are resized.
+ * <p>
+ * Lookups normally take no lock, they read the arrays optimistically, and are
+ * repeated under a read lock only if the map was changed meanwhile. Changes
+ * are made one at a time, under a write lock. This class is thread safe.
+ *
+ * @param <V> The type of the values.
+ */
+class LongKeyMap<V> {
+    private static final long EMPTY = 0;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final StampedLock lock = new StampedLock();
+    private Table table = new Table(INITIAL_CAPACITY);
+    private int usedSlots;
+    private int size;
+
+    /**
+     * Returns the value of the specified key.
+     *
+     * @param key The key, which must not be zero.
+     * @return The value, or <code>null</code> if the key is not in the map.
+     */
+    V get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        V value = find(table, key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = find(table, key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Maps the specified key to the specified value, replacing any previous
+     * value of the key.
+     *
+     * @param key   The key, which must not be zero.
+     * @param value The value, which must not be <code>null</code>.
+     */
+    void put(long key, V value) {
+        if (key == EMPTY || value == null) {
+            throw new IllegalArgumentException("Illegal entry, key: " + key + ", value: " + value);
+        }
+        long stamp = lock.writeLock();
+        try {
+            int index = slotOf(table, key);
+            if (table.keys[index] == EMPTY) {
+                if ((usedSlots + 1) * 2 > table.keys.length) {
+                    resize();
+                    index = slotOf(table, key);
+                }
+                table.keys[index] = key;
+                usedSlots++;
+            }
+            if (table.values[index] == null) {
+                size++;
+            }
+            table.values[index] = value;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the specified key from the map.
+     *
+     * @param key The key, which must not be zero.
+     * @return The removed value, or <code>null</code> if the key was not in the
+     *         map.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            int index = slotOf(table, key);
+            V removed = (V) table.values[index];
+            if (removed != null) {
+                table.values[index] = null;
+                size--;
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return The number of keys in the map.
+     */
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Searches for the specified key. The table may be read while it is being
+     * changed, so the search gives up after visiting every slot, instead of
+     * relying on finding an empty one.
+     */
+    @SuppressWarnings("unchecked")
+    private V find(Table searched, long key) {
+        long[] keys = searched.keys;
+        int mask = keys.length - 1;
+        int index = indexOf(key, mask);
+        for (int probes = 0; probes < keys.length; probes++) {
+            long candidate = keys[index];
+            if (candidate == key) {
+                return (V) searched.values[index];
+            }
+            if (candidate == EMPTY) {
+                return null;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the slot holding the specified key, or the empty slot where it
+     * shall be put. There is always an empty slot, since the table is at most
+     * half full.
+     */
+    private int slotOf(Table searched, long key) {
+        long[] keys = searched.keys;
+        int mask = keys.length - 1;
+        int index = indexOf(key, mask);
+        while (keys[index] != key && keys[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        int capacity = table.keys.length;
+        while ((size + 1) * 4 > capacity) {
+            capacity *= 2;
+        }
+        Table resized = new Table(capacity);
+        for (int i = 0; i < table.keys.length; i++) {
+            if (table.values[i] != null) {
+                int index = slotOf(resized, table.keys[i]);
+                resized.keys[index] = table.keys[i];
+                resized.values[index] = table.values[i];
+            }
+        }
+        table = resized;
+        usedSlots = size;
+    }
+
+    private static int indexOf(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * The arrays of a map, which are replaced together when the map is resized.
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+    }
+}
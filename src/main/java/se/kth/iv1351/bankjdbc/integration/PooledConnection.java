@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A database connection owned by a <code>ConnectionPool</code>. Each instance
+ * keeps its own cache of prepared statements, so that a statement is prepared
+ * only once per physical connection. A statement that has been returned in the
+ * current transaction is never evicted from the cache, since the caller may
+ * still use it, so the cache may grow above its size until the transaction
+ * ends. An instance is used by one thread at a time, it is therefore not
+ * thread safe.
+ */
+class PooledConnection {
+    private final Connection connection;
+    private final int statementCacheSize;
+    private final Map<String, PreparedStatement> statementCache =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<PreparedStatement> borrowedStatements =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private long lastReleasedAt = System.nanoTime();
+
+    /**
+     * Creates a new instance wrapping the specified connection.
+     *
+     * @param connection         The physical connection.
+     * @param statementCacheSize The maximum number of prepared statements that
+     *                           are kept open on this connection.
+     */
+    PooledConnection(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Returns a prepared statement for the specified SQL. The statement is
+     * prepared the first time it is requested, and then reused. The returned
+     * statement must not be closed by the caller.
+     *
+     * @param sql The SQL of the statement.
+     * @return A prepared statement for the specified SQL.
+     * @throws SQLException If unable to prepare the statement.
+     */
+    PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement stmt = statementCache.get(sql);
+        if (stmt == null) {
+            stmt = connection.prepareStatement(sql);
+            statementCache.put(sql, stmt);
+        }
+        borrowedStatements.add(stmt);
+        evictUnborrowedStatements();
+        return stmt;
+    }
+
+    /**
+     * @return The physical connection.
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Commits the current transaction.
+     *
+     * @throws SQLException If unable to commit.
+     */
+    void commit() throws SQLException {
+        connection.commit();
+        endTransaction();
+    }
+
+    /**
+     * Rolls back the current transaction.
+     *
+     * @throws SQLException If unable to roll back.
+     */
+    void rollback() throws SQLException {
+        try {
+            connection.rollback();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    /**
+     * Checks if the connection is still usable.
+     *
+     * @param timeoutSeconds The maximum time to wait for the database to answer.
+     * @return <code>true</code> if the connection is usable.
+     */
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return !connection.isClosed() && connection.isValid(timeoutSeconds);
+        } catch (SQLException sqle) {
+            return false;
+        }
+    }
+
+    /**
+     * Records that the connection was just returned to the pool.
+     */
+    void markReleased() {
+        endTransaction();
+        lastReleasedAt = System.nanoTime();
+    }
+
+    /**
+     * @return The number of nanoseconds since this connection was returned to
+     *         the pool.
+     */
+    long idleNanos() {
+        return System.nanoTime() - lastReleasedAt;
+    }
+
+    /**
+     * Closes all cached statements and the physical connection. Failures are
+     * ignored, since the connection is discarded anyway.
+     */
+    void closeQuietly() {
+        for (PreparedStatement stmt : statementCache.values()) {
+            closeStatement(stmt);
+        }
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void endTransaction() {
+        borrowedStatements.clear();
+        evictUnborrowedStatements();
+    }
+
+    /**
+     * Closes and removes the least recently used statements that are not
+     * borrowed in the current transaction, until the cache is not larger than
+     * its size.
+     */
+    private void evictUnborrowedStatements() {
+        Iterator<PreparedStatement> statements = statementCache.values().iterator();
+        while (statementCache.size() > statementCacheSize && statements.hasNext()) {
+            PreparedStatement stmt = statements.next();
+            if (!borrowedStatements.contains(stmt)) {
+                closeStatement(stmt);
+                statements.remove();
+            }
+        }
+    }
+
+    private void closeStatement(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
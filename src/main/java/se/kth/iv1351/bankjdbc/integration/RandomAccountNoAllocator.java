@@ -0,0 +1,45 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.sql.Connection;
+import java.util.concurrent.ThreadLocalRandom;
+
+import se.kth.iv1351.bankjdbc.model.AccountNumberFormat;
+
+/**
+ * Creates random account numbers, without calling the database. A duplicate
+ * number is possible, but is then rejected by the unique index on the account
+ * number, which makes the account creation fail.
+ */
+class RandomAccountNoAllocator implements AccountNoAllocator {
+    private static final long MIN_NUMBER = 100_000_000L;
+    private static final long MAX_NUMBER = 1_000_000_000L;
+
+    @Override
+    public String nextAccountNo(Connection connection) {
+        return AccountNumberFormat.withCheckDigit(
+                ThreadLocalRandom.current().nextLong(MIN_NUMBER, MAX_NUMBER));
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates and upgrades the bank database schema. Each schema version is a SQL
+ * script in <code>db/migration/postgres</code> on the class path, the
+ * versions applied to a database are recorded in its
+ * <code>schema_version</code> table. The migrator also verifies that the
+ * indexes the DAO's queries depend on exist.
+ */
+class SchemaMigrator {
+    /**
+     * Tells what the migrator does at startup.
+     */
+    enum Mode {
+        /**
+         * Applies all missing schema versions, then verifies the schema.
+         */
+        MIGRATE,
+        /**
+         * Only verifies the schema, and fails if it is not up to date.
+         */
+        VERIFY,
+        /**
+         * Does nothing.
+         */
+        NONE
+    }
+
+    /**
+     * All schema versions, in order. Version n is the n:th element. New versions
+     * are appended, existing versions must never be changed.
+     */
+    private static final String[] MIGRATIONS = {
+        "V1__create_tables",
+        "V2__add_account_indexes",
+        "V3__create_account_no_sequence",
+        "V4__create_account_slot_table",
+        "V5__add_account_version",
+        "V6__create_account_entry_tables",
+        "V7__add_account_balance_index",
+        "V8__drop_account_balance_index"
+    };
+    private static final String VERSION_TABLE_NAME = "schema_version";
+    private static final String ACCT_TABLE_NAME = "account";
+    private static final String ACCT_NO_COLUMN_NAME = "account_no";
+    private static final String HOLDER_FK_COLUMN_NAME = "holder_id";
+
+    private static final String MIGRATION_DIR = "/db/migration/postgres/";
+    private final Connection connection;
+
+    /**
+     * Creates a new instance that uses the specified connection. The connection
+     * must have auto commit turned off.
+     *
+     * @param connection The connection to the bank database.
+     */
+    SchemaMigrator(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Migrates and/or verifies the schema, as specified by the mode.
+     *
+     * @param mode What to do.
+     * @throws BankDBException If a migration fails, or if the schema is not up to
+     *                         date. The message tells what is wrong.
+     */
+    void run(Mode mode) throws BankDBException {
+        try {
+            if (mode == Mode.MIGRATE) {
+                migrate();
+            }
+            if (mode != Mode.NONE) {
+                verify();
+            }
+        } catch (SQLException sqle) {
+            rollback();
+            throw new BankDBException("Could not " + mode.name().toLowerCase()
+                                      + " the database schema.", sqle);
+        }
+    }
+
+    private void migrate() throws SQLException, BankDBException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE_NAME
+                               + " (version INT PRIMARY KEY, description VARCHAR(200) NOT NULL,"
+                               + " applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+            connection.commit();
+            for (int version = currentVersion() + 1; version <= MIGRATIONS.length; version++) {
+                for (String sql : readStatements(MIGRATIONS[version - 1])) {
+                    stmt.execute(sql);
+                }
+                stmt.executeUpdate("INSERT INTO " + VERSION_TABLE_NAME
+                                   + " (version, description) VALUES (" + version + ", '"
+                                   + MIGRATIONS[version - 1] + "')");
+                connection.commit();
+            }
+        }
+    }
+
+    private void verify() throws SQLException, BankDBException {
+        int currentVersion = currentVersion();
+        if (currentVersion < MIGRATIONS.length) {
+            throw new BankDBException("The database schema is at version " + currentVersion
+                                      + ", but version " + MIGRATIONS.length + " is required. "
+                                      + "Start with -Dbankdb.schema=migrate to upgrade it.");
+        }
+
+        List<String> missingIndexes = new ArrayList<>();
+        Map<String, List<String>> indexColumns = new HashMap<>();
+        Map<String, Boolean> indexUnique = new HashMap<>();
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet indexInfo = metaData.getIndexInfo(null, null, ACCT_TABLE_NAME,
+                                                         false, false)) {
+            while (indexInfo.next()) {
+                String indexName = indexInfo.getString("INDEX_NAME");
+                if (indexName == null) {
+                    continue;
+                }
+                indexColumns.computeIfAbsent(indexName, name -> new ArrayList<>())
+                            .add(indexInfo.getString("COLUMN_NAME").toLowerCase());
+                indexUnique.put(indexName, !indexInfo.getBoolean("NON_UNIQUE"));
+            }
+        }
+        connection.commit();
+
+        boolean acctNoIndexFound = false;
+        boolean holderIndexFound = false;
+        for (Map.Entry<String, List<String>> index : indexColumns.entrySet()) {
+            List<String> columns = index.getValue();
+            if (columns.size() == 1 && columns.get(0).equals(ACCT_NO_COLUMN_NAME)
+                && indexUnique.get(index.getKey())) {
+                acctNoIndexFound = true;
+            }
+            if (columns.get(0).equals(HOLDER_FK_COLUMN_NAME)) {
+                holderIndexFound = true;
+            }
+        }
+        if (!acctNoIndexFound) {
+            missingIndexes.add("unique index on " + ACCT_TABLE_NAME + "(" + ACCT_NO_COLUMN_NAME + ")");
+        }
+        if (!holderIndexFound) {
+            missingIndexes.add("index on " + ACCT_TABLE_NAME + "(" + HOLDER_FK_COLUMN_NAME + ")");
+        }
+        if (!missingIndexes.isEmpty()) {
+            throw new BankDBException("The database lacks indexes required by the bank "
+                                      + "application: " + String.join(", ", missingIndexes));
+        }
+    }
+
+    private int currentVersion() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet result = stmt.executeQuery("SELECT MAX(version) FROM " + VERSION_TABLE_NAME)) {
+            result.next();
+            int version = result.getInt(1);
+            connection.commit();
+            return version;
+        } catch (SQLException sqle) {
+            rollback();
+            return 0;
+        }
+    }
+
+    private List<String> readStatements(String migration) throws BankDBException {
+        String resource = MIGRATION_DIR + migration + ".sql";
+        try (InputStream in = SchemaMigrator.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new BankDBException("Missing schema migration: " + resource);
+            }
+            List<String> statements = new ArrayList<>();
+            for (String sql : new String(in.readAllBytes(), StandardCharsets.UTF_8).split(";")) {
+                if (!sql.isBlank()) {
+                    statements.add(sql.trim());
+                }
+            }
+            return statements;
+        } catch (IOException ioe) {
+            throw new BankDBException("Could not read schema migration: " + resource, ioe);
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException ignored) {
+        }
+    }
+}
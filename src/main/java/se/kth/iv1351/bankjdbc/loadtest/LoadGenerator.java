@@ -0,0 +1,308 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import se.kth.iv1351.bankjdbc.controller.Controller;
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
+import se.kth.iv1351.bankjdbc.view.Command;
+
+/**
+ * Drives a number of concurrent clients through a mix of bank operations, and
+ * reports throughput and latency percentiles for each kind of operation. Each
+ * client sends its next operation as soon as the previous one is finished, the
+ * latencies therefore do not include time an operation would have waited to
+ * be sent by a client with a fixed request rate.
+ */
+public class LoadGenerator {
+    private static final Command[] SUPPORTED_OPS =
+        {Command.NEW, Command.BALANCE, Command.DEPOSIT, Command.WITHDRAW, Command.TRANSFER,
+         Command.LIST};
+    private static final String HOLDER_PREFIX = "loadtest-holder";
+    private static final int ACCOUNTS_PER_HOLDER = 10;
+    private static final int INITIAL_BALANCE = 1_000_000_000;
+    private static final int MAX_AMOUNT = 100;
+    private final Controller ctrl;
+    private final LoadTestConfig config;
+    private final Command[] ops;
+    private final int[] cumulativeWeights;
+    private final int holderCount;
+    private final AtomicReference<Exception> firstFailure = new AtomicReference<>();
+    private String[] acctNos;
+
+    /**
+     * Creates a new instance, that will run the specified test.
+     *
+     * @param ctrl   The controller used for all operations.
+     * @param config The settings of the test.
+     */
+    public LoadGenerator(Controller ctrl, LoadTestConfig config) {
+        this.ctrl = ctrl;
+        this.config = config;
+        Map<Command, Integer> mix = config.getMix();
+        ops = mix.keySet().toArray(new Command[0]);
+        cumulativeWeights = new int[ops.length];
+        int sum = 0;
+        for (int i = 0; i < ops.length; i++) {
+            sum += mix.get(ops[i]);
+            cumulativeWeights[i] = sum;
+        }
+        holderCount = Math.max(1, config.getAccountCount() / ACCOUNTS_PER_HOLDER);
+    }
+
+    /**
+     * @param op Any command.
+     * @return <code>true</code> if the specified command can be part of a load
+     *         test.
+     */
+    static boolean isSupported(Command op) {
+        for (Command supported : SUPPORTED_OPS) {
+            if (supported == op) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the accounts, runs the test and prints the result.
+     *
+     * @param out Where to print the result.
+     * @throws AccountException     If unable to create the accounts.
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     */
+    public void run(PrintStream out) throws AccountException, InterruptedException {
+        out.println("Load test, " + config);
+        long seedStart = System.nanoTime();
+        seedAccounts();
+        out.println("Prepared " + acctNos.length + " accounts in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - seedStart) + " ms.");
+        int hotCount = Math.min(config.getHotAccountCount(), acctNos.length);
+        if (hotCount > 0) {
+            out.println("Hot accounts: " + String.join(",", Arrays.copyOf(acctNos, hotCount)));
+        }
+
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        long measureEnd = measureStart + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        List<Callable<Map<Command, OperationStats>>> clients = new ArrayList<>();
+        for (int i = 0; i < config.getThreadCount(); i++) {
+            clients.add(() -> runClient(measureStart, measureEnd));
+        }
+        Map<Command, OperationStats> total = new EnumMap<>(Command.class);
+        for (Map<Command, OperationStats> clientStats : invokeAll(clients)) {
+            clientStats.forEach((op, stats) -> total.computeIfAbsent(op, key -> new OperationStats())
+                                                    .add(stats));
+        }
+        printReport(out, total);
+    }
+
+    private void seedAccounts() throws AccountException, InterruptedException {
+        List<AccountDTO> existing = findTestAccounts();
+        List<Callable<Void>> creations = new ArrayList<>();
+        for (int i = existing.size(); i < config.getAccountCount(); i++) {
+            String holderName = holderName(i);
+            creations.add(() -> {
+                ctrl.createAccount(holderName);
+                return null;
+            });
+        }
+        invokeAll(creations);
+
+        List<AccountDTO> accounts = findTestAccounts();
+        List<Callable<Void>> deposits = new ArrayList<>();
+        acctNos = new String[accounts.size()];
+        for (int i = 0; i < acctNos.length; i++) {
+            AccountDTO acct = accounts.get(i);
+            acctNos[i] = acct.getAccountNo();
+            if (acct.getBalance() < INITIAL_BALANCE / 2) {
+                deposits.add(() -> {
+                    ctrl.deposit(acct.getAccountNo(), INITIAL_BALANCE - acct.getBalance());
+                    return null;
+                });
+            }
+        }
+        invokeAll(deposits);
+    }
+
+    /**
+     * Returns the test accounts with the lowest account numbers, so that the
+     * same accounts, and the same hot accounts, are used by every run.
+     */
+    private List<AccountDTO> findTestAccounts() throws AccountException {
+        List<AccountDTO> accounts = new ArrayList<>();
+        ctrl.forEachAccount(acct -> {
+            if (acct.getHolderName().startsWith(HOLDER_PREFIX)) {
+                accounts.add(new Account(acct.getAccountNo(), acct.getHolderName(),
+                                         acct.getBalance()));
+            }
+        });
+        accounts.sort(Comparator.comparing(AccountDTO::getAccountNo));
+        return accounts.subList(0, Math.min(accounts.size(), config.getAccountCount()));
+    }
+
+    private Map<Command, OperationStats> runClient(long measureStart, long measureEnd) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<Command, OperationStats> statsPerOp = new EnumMap<>(Command.class);
+        for (Command op : ops) {
+            statsPerOp.put(op, new OperationStats());
+        }
+        long start;
+        while ((start = System.nanoTime()) < measureEnd) {
+            Command op = nextOperation(random);
+            boolean rejected = false;
+            boolean failed = false;
+            try {
+                execute(op, random);
+            } catch (RejectedException re) {
+                rejected = true;
+            } catch (AccountException | RuntimeException e) {
+                firstFailure.compareAndSet(null, e);
+                failed = true;
+            }
+            long latency = System.nanoTime() - start;
+            if (start < measureStart) {
+                continue;
+            }
+            OperationStats stats = statsPerOp.get(op);
+            if (failed) {
+                stats.recordFailed();
+            } else if (rejected) {
+                stats.recordRejected(latency);
+            } else {
+                stats.recordSuccess(latency);
+            }
+        }
+        return statsPerOp;
+    }
+
+    private Command nextOperation(ThreadLocalRandom random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return ops[i];
+            }
+        }
+        throw new IllegalStateException("No operation for weight " + value);
+    }
+
+    private void execute(Command op, ThreadLocalRandom random)
+            throws AccountException, RejectedException {
+        switch (op) {
+            case NEW:
+                ctrl.createAccount(holderName(random.nextInt(holderCount)));
+                break;
+            case BALANCE:
+                ctrl.getAccount(nextAcctNo(random));
+                break;
+            case DEPOSIT:
+                ctrl.deposit(nextAcctNo(random), 1 + random.nextInt(MAX_AMOUNT));
+                break;
+            case WITHDRAW:
+                ctrl.withdraw(nextAcctNo(random), 1 + random.nextInt(MAX_AMOUNT));
+                break;
+            case TRANSFER:
+                String fromAcctNo = nextAcctNo(random);
+                String toAcctNo;
+                do {
+                    toAcctNo = nextAcctNo(random);
+                } while (toAcctNo.equals(fromAcctNo) && acctNos.length > 1);
+                ctrl.transfer(fromAcctNo, toAcctNo, 1 + random.nextInt(MAX_AMOUNT));
+                break;
+            case LIST:
+                ctrl.getAccountsForHolder(holderName(random.nextInt(holderCount)));
+                break;
+            default:
+                throw new IllegalStateException("Unsupported operation: " + op);
+        }
+    }
+
+    private String nextAcctNo(ThreadLocalRandom random) {
+        int hotCount = Math.min(config.getHotAccountCount(), acctNos.length);
+        if (hotCount > 0 && random.nextInt(100) < config.getHotPercent()) {
+            return acctNos[random.nextInt(hotCount)];
+        }
+        return acctNos[random.nextInt(acctNos.length)];
+    }
+
+    private String holderName(int index) {
+        return HOLDER_PREFIX + (index % holderCount);
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws AccountException,
+            InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(config.getThreadCount());
+        try {
+            List<T> results = new ArrayList<>();
+            for (Future<T> result : executor.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (ExecutionException ee) {
+            throw new AccountException("Load test client failed.", ee.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void printReport(PrintStream out, Map<Command, OperationStats> statsPerOp) {
+        double seconds = config.getDurationSeconds();
+        out.printf("%-10s %10s %10s %9s %7s %10s %10s %10s %10s%n", "operation", "count",
+                   "ops/s", "rejected", "failed", "p50 (us)", "p99 (us)", "p99.9 (us)",
+                   "max (us)");
+        long totalCount = 0;
+        for (Map.Entry<Command, OperationStats> entry : statsPerOp.entrySet()) {
+            OperationStats stats = entry.getValue();
+            long count = stats.getCompletedCount();
+            totalCount += count;
+            out.printf("%-10s %10d %10.1f %9d %7d %10.1f %10.1f %10.1f %10.1f%n",
+                       entry.getKey().name().toLowerCase(), count, count / seconds,
+                       stats.getRejectedCount(), stats.getFailedCount(),
+                       stats.getLatencyMicros(50), stats.getLatencyMicros(99),
+                       stats.getLatencyMicros(99.9), stats.getMaxLatencyMicros());
+        }
+        out.printf("%-10s %10d %10.1f%n", "total", totalCount, totalCount / seconds);
+        Exception failure = firstFailure.get();
+        if (failure != null) {
+            out.println("First failure: " + failure);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.loadtest;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import se.kth.iv1351.bankjdbc.view.Command;
+
+/**
+ * The settings of a load test, read from system properties.
+ * <ul>
+ * <li><code>loadtest.accounts</code> The number of accounts used by the test,
+ * default 1000.</li>
+ * <li><code>loadtest.threads</code> The number of client threads, default
+ * 8.</li>
+ * <li><code>loadtest.warmupSeconds</code> How long to run before measuring
+ * starts, default 5.</li>
+ * <li><code>loadtest.durationSeconds</code> How long to measure, default
+ * 30.</li>
+ * <li><code>loadtest.mix</code> The relative weights of the operations, default
+ * <code>balance=50,deposit=20,withdraw=20,new=5,list=5</code>.</li>
+ * <li><code>loadtest.hotAccounts</code> The number of hot accounts, default 0,
+ * which means all accounts are equally popular.</li>
+ * <li><code>loadtest.hotPercent</code> The percentage of balance, deposit and
+ * withdraw operations that use a hot account, default 90.</li>
+ * </ul>
+ */
+public class LoadTestConfig {
+    private static final String DEFAULT_MIX = "balance=50,deposit=20,withdraw=20,new=5,list=5";
+    private final int accountCount;
+    private final int threadCount;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final Map<Command, Integer> mix;
+    private final int hotAccountCount;
+    private final int hotPercent;
+
+    /**
+     * Creates a new instance with the specified settings.
+     *
+     * @param accountCount    The number of accounts used by the test.
+     * @param threadCount     The number of client threads.
+     * @param warmupSeconds   How long to run before measuring starts.
+     * @param durationSeconds How long to measure.
+     * @param mix             The relative weight of each operation.
+     * @param hotAccountCount The number of hot accounts.
+     * @param hotPercent      The percentage of account operations that use a hot
+     *                        account.
+     */
+    public LoadTestConfig(int accountCount, int threadCount, int warmupSeconds,
+                          int durationSeconds, Map<Command, Integer> mix, int hotAccountCount,
+                          int hotPercent) {
+        if (accountCount < 1 || threadCount < 1 || warmupSeconds < 0 || durationSeconds < 1) {
+            throw new IllegalArgumentException("Illegal load test settings, accounts: "
+                                               + accountCount + ", threads: " + threadCount
+                                               + ", warmup: " + warmupSeconds
+                                               + ", duration: " + durationSeconds);
+        }
+        if (hotAccountCount < 0 || hotAccountCount > accountCount || hotPercent < 0
+            || hotPercent > 100) {
+            throw new IllegalArgumentException("Illegal hot account settings, hot accounts: "
+                                               + hotAccountCount + ", hot percent: "
+                                               + hotPercent);
+        }
+        this.accountCount = accountCount;
+        this.threadCount = threadCount;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.mix = new EnumMap<>(mix);
+        this.hotAccountCount = hotAccountCount;
+        this.hotPercent = hotPercent;
+    }
+
+    /**
+     * @return The settings specified by the <code>loadtest.*</code> system
+     *         properties.
+     */
+    public static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(Integer.getInteger("loadtest.accounts", 1000),
+                                  Integer.getInteger("loadtest.threads", 8),
+                                  Integer.getInteger("loadtest.warmupSeconds", 5),
+                                  Integer.getInteger("loadtest.durationSeconds", 30),
+                                  parseMix(System.getProperty("loadtest.mix", DEFAULT_MIX)),
+                                  Integer.getInteger("loadtest.hotAccounts", 0),
+                                  Integer.getInteger("loadtest.hotPercent", 90));
+    }
+
+    /**
+     * Parses an operation mix, like <code>balance=80,deposit=20</code>. The
+     * operations are <code>new</code>, <code>balance</code>,
+     * <code>deposit</code>, <code>withdraw</code>, <code>transfer</code> and
+     * <code>list</code>.
+     *
+     * @param mix The mix to parse.
+     * @return The weight of each operation in the mix.
+     * @throws IllegalArgumentException If the mix can not be parsed.
+     */
+    static Map<Command, Integer> parseMix(String mix) {
+        Map<Command, Integer> weights = new EnumMap<>(Command.class);
+        for (String entry : mix.split(",")) {
+            String[] nameAndWeight = entry.trim().split("=");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("Illegal operation mix: " + mix);
+            }
+            Command op;
+            int weight;
+            try {
+                op = Command.valueOf(nameAndWeight[0].trim().toUpperCase(Locale.ROOT));
+                weight = Integer.parseInt(nameAndWeight[1].trim());
+            } catch (IllegalArgumentException iae) {
+                throw new IllegalArgumentException("Illegal operation mix: " + mix, iae);
+            }
+            if (!LoadGenerator.isSupported(op) || weight < 0) {
+                throw new IllegalArgumentException("Illegal operation mix: " + mix);
+            }
+            weights.put(op, weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("No operations in mix: " + mix);
+        }
+        return weights;
+    }
+
+    /**
+     * @return The number of accounts used by the test.
+     */
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * @return The number of client threads.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @return How long to run before measuring starts.
+     */
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    /**
+     * @return How long to measure.
+     */
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * @return The relative weight of each operation.
+     */
+    public Map<Command, Integer> getMix() {
+        return new EnumMap<>(mix);
+    }
+
+    /**
+     * @return The number of hot accounts.
+     */
+    public int getHotAccountCount() {
+        return hotAccountCount;
+    }
+
+    /**
+     * @return The percentage of account operations that use a hot account.
+     */
+    public int getHotPercent() {
+        return hotPercent;
+    }
+
+    @Override
+    public String toString() {
+        return "accounts: " + accountCount + ", threads: " + threadCount + ", warmup: "
+               + warmupSeconds + " s, duration: " + durationSeconds + " s, mix: " + mix
+               + ", hot accounts: " + hotAccountCount + " (" + hotPercent + "%)";
+    }
+}
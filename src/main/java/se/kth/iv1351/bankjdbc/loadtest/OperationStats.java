@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latencies and outcomes of one kind of operation. Each client thread has its
+ * own instances, which are merged when the test is finished, this class is
+ * therefore not thread safe.
+ */
+class OperationStats {
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private final Histogram latencies = new Histogram(SIGNIFICANT_DIGITS);
+    private long rejectedCount;
+    private long failedCount;
+
+    /**
+     * Records a successful operation.
+     *
+     * @param latencyNanos The duration of the operation.
+     */
+    void recordSuccess(long latencyNanos) {
+        latencies.recordValue(latencyNanos);
+    }
+
+    /**
+     * Records an operation that was rejected by the bank, for example an
+     * overdraft attempt.
+     *
+     * @param latencyNanos The duration of the operation.
+     */
+    void recordRejected(long latencyNanos) {
+        latencies.recordValue(latencyNanos);
+        rejectedCount++;
+    }
+
+    /**
+     * Records an operation that failed, for example because the database could
+     * not be reached. Failed operations are not included in the latencies.
+     */
+    void recordFailed() {
+        failedCount++;
+    }
+
+    /**
+     * Adds all recorded operations of the specified instance to this instance.
+     *
+     * @param other The instance to add.
+     */
+    void add(OperationStats other) {
+        latencies.add(other.latencies);
+        rejectedCount += other.rejectedCount;
+        failedCount += other.failedCount;
+    }
+
+    /**
+     * @return The number of operations that completed, including rejected
+     *         operations.
+     */
+    long getCompletedCount() {
+        return latencies.getTotalCount();
+    }
+
+    /**
+     * @return The number of rejected operations.
+     */
+    long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return The number of failed operations.
+     */
+    long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @param percentile The requested percentile, for example 99.9.
+     * @return The latency at the specified percentile, in microseconds.
+     */
+    double getLatencyMicros(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * @return The highest latency, in microseconds.
+     */
+    double getMaxLatencyMicros() {
+        return latencies.getMaxValue() / 1000.0;
+    }
+}
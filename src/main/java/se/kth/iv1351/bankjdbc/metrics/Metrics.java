@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Creates timers and counters, and publishes them as MBeans in the platform
+ * MBean server, with names like
+ * <code>se.kth.iv1351.bankjdbc:type=BankDAO,name=createAccount</code>. There
+ * is one timer or counter per name in the JVM, all objects asking for the same
+ * name share it. This class is thread safe.
+ */
+public final class Metrics {
+    /**
+     * The domain of the names of all published MBeans.
+     */
+    public static final String DOMAIN = "se.kth.iv1351.bankjdbc";
+    private static final Map<String, Object> METRICS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the timer with the specified name, it is created and published the
+     * first time it is requested.
+     *
+     * @param type The component that performs the operation, for example
+     *             <code>BankDAO</code>.
+     * @param name The name of the operation.
+     * @return The timer with the specified name.
+     */
+    public static OperationTimer timer(String type, String name) {
+        return get(type, name, OperationTimer.class, OperationTimer::new);
+    }
+
+    /**
+     * Returns the counter with the specified name, it is created and published
+     * the first time it is requested.
+     *
+     * @param type The component that counts the events, for example
+     *             <code>BankDAO</code>.
+     * @param name The name of the counted events.
+     * @return The counter with the specified name.
+     */
+    public static Counter counter(String type, String name) {
+        return get(type, name, Counter.class, Counter::new);
+    }
+
+    private static <T> T get(String type, String name, Class<T> metricClass,
+                             Supplier<T> factory) {
+        String objectName = DOMAIN + ":type=" + type + ",name=" + name;
+        Object metric = METRICS.computeIfAbsent(objectName, key -> {
+            T created = factory.get();
+            publish(key, created);
+            return created;
+        });
+        if (!metricClass.isInstance(metric)) {
+            throw new IllegalArgumentException(objectName + " is not a "
+                                               + metricClass.getSimpleName());
+        }
+        return metricClass.cast(metric);
+    }
+
+    /**
+     * A metric that can not be published is still recorded, so that a missing
+     * or restricted MBean server never stops the bank.
+     */
+    private static void publish(String objectName, Object metric) {
+        try {
+            ObjectName name = new ObjectName(objectName);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metric, name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.err.println("Could not publish " + objectName + ": " + e);
+        }
+    }
+}
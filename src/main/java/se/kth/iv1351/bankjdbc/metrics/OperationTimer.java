@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the calls of an operation, and measures their duration. Recording a
+ * call neither locks nor allocates objects, so timers can be used by all calls
+ * under full load. This class is thread safe.
+ */
+public class OperationTimer implements OperationTimerMXBean {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder rowCount = new LongAdder();
+
+    /**
+     * Creates a new instance. Use <code>Metrics.timer</code> to create a timer
+     * that is published over JMX.
+     */
+    public OperationTimer() {
+    }
+
+    /**
+     * Records a call that started at the specified time and ends now.
+     *
+     * @param startNanos The value of <code>System.nanoTime()</code> when the
+     *                   call started.
+     */
+    public void record(long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        count.increment();
+        totalNanos.add(elapsedNanos);
+        maxNanos.accumulate(elapsedNanos);
+    }
+
+    /**
+     * Adds the specified number of rows to the number returned by this
+     * operation.
+     *
+     * @param rows The number of rows returned by a call.
+     */
+    public void addRows(long rows) {
+        rowCount.add(rows);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getTotalTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(totalNanos.sum());
+    }
+
+    @Override
+    public double getMeanTimeMicros() {
+        long calls = count.sum();
+        return calls == 0 ? 0 : totalNanos.sum() / 1000.0 / calls;
+    }
+
+    @Override
+    public long getMaxTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    @Override
+    public long getRowCount() {
+        return rowCount.sum();
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        rowCount.reset();
+    }
+
+    /**
+     * @return A string representation of the timer's current values.
+     */
+    @Override
+    public String toString() {
+        return "OperationTimer: [count: " + getCount() + ", mean (us): " + getMeanTimeMicros()
+               + ", max (us): " + getMaxTimeMicros() + ", rows: " + getRowCount() + "]";
+    }
+}
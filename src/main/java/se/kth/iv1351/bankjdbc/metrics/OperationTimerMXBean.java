@@ -0,0 +1,61 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.metrics;
+
+/**
+ * The management interface of an <code>OperationTimer</code>, as seen by JMX
+ * clients.
+ */
+public interface OperationTimerMXBean {
+    /**
+     * @return The number of calls.
+     */
+    long getCount();
+
+    /**
+     * @return The total time spent in all calls, in microseconds.
+     */
+    long getTotalTimeMicros();
+
+    /**
+     * @return The mean time of a call, in microseconds.
+     */
+    double getMeanTimeMicros();
+
+    /**
+     * @return The longest time of a call, in microseconds.
+     */
+    long getMaxTimeMicros();
+
+    /**
+     * @return The total number of rows returned by all calls, zero for
+     *         operations that do not return rows.
+     */
+    long getRowCount();
+
+    /**
+     * Sets all values to zero.
+     */
+    void reset();
+}
@@ -30,6 +30,7 @@ public class Account implements AccountDTO {
     private int balance;
     private String holderName;
     private String acctNo;
+    private long version;
 
     /**
      * Creates an account for the specified holder with the balance zero. The account
@@ -62,9 +63,23 @@ public class Account implements AccountDTO {
      * @param balance    The initial balance.
      */
     public Account(String acctNo, String holderName, int balance) {
+        this(acctNo, holderName, balance, 0);
+    }
+
+    /**
+     * Creates an account that was read from the database, with the version its
+     * row had when it was read.
+     *
+     * @param acctNo     The account number.
+     * @param holderName The account holder's holderName.
+     * @param balance    The balance.
+     * @param version    The version of the account's row.
+     */
+    public Account(String acctNo, String holderName, int balance, long version) {
         this.acctNo = acctNo;
         this.holderName = holderName;
         this.balance = balance;
+        this.version = version;
     }
 
     /**
@@ -81,6 +96,14 @@ public class Account implements AccountDTO {
         return balance;
     }
 
+    /**
+     * @return The version of the account's row when it was read, used to detect
+     *         that it was updated by someone else before this account is saved.
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * @return The holder's name.
      */
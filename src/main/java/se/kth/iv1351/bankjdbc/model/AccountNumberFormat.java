@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * The format of account numbers. An account number is a sequence of digits, of
+ * which the last is a check digit calculated with the Luhn algorithm. The check
+ * digit makes it possible to reject mistyped account numbers without searching
+ * for them.
+ */
+public final class AccountNumberFormat {
+    /**
+     * The maximum number of digits in an account number, including the check
+     * digit.
+     */
+    public static final int MAX_LENGTH = 10;
+
+    private AccountNumberFormat() {
+    }
+
+    /**
+     * Creates an account number by appending a check digit to the specified
+     * number.
+     *
+     * @param number A non-negative number with at most <code>MAX_LENGTH - 1</code>
+     *               digits.
+     * @return The account number.
+     */
+    public static String withCheckDigit(long number) {
+        if (number < 0 || Long.toString(number).length() >= MAX_LENGTH) {
+            throw new IllegalArgumentException("Can not create account number from: " + number);
+        }
+        String digits = Long.toString(number);
+        return digits + checkDigit(digits);
+    }
+
+    /**
+     * Checks that the specified string is a well-formed account number, with a
+     * correct check digit. This does not tell if there is an account with the
+     * specified number.
+     *
+     * @param acctNo The string to check.
+     * @return <code>true</code> if the specified string is a well-formed account
+     *         number.
+     */
+    public static boolean isValid(String acctNo) {
+        if (acctNo == null || acctNo.length() < 2 || acctNo.length() > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < acctNo.length(); i++) {
+            if (acctNo.charAt(i) < '0' || acctNo.charAt(i) > '9') {
+                return false;
+            }
+        }
+        int lastIndex = acctNo.length() - 1;
+        return checkDigit(acctNo.substring(0, lastIndex)) == acctNo.charAt(lastIndex) - '0';
+    }
+
+    private static int checkDigit(String digits) {
+        int sum = 0;
+        boolean doubleDigit = true;
+        for (int i = digits.length() - 1; i >= 0; i--) {
+            int digit = digits.charAt(i) - '0';
+            if (doubleDigit) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubleDigit = !doubleDigit;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
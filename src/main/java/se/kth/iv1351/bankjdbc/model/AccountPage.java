@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of accounts, and a cursor that is used to retrieve the next page.
+ */
+public class AccountPage {
+    private final List<? extends AccountDTO> accounts;
+    private final String nextCursor;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param accounts   The accounts on this page.
+     * @param nextCursor The cursor identifying the position after the last
+     *                   account on this page, or <code>null</code> if this is the
+     *                   last page.
+     */
+    public AccountPage(List<? extends AccountDTO> accounts, String nextCursor) {
+        this.accounts = accounts;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return The accounts on this page.
+     */
+    public List<? extends AccountDTO> getAccounts() {
+        return Collections.unmodifiableList(accounts);
+    }
+
+    /**
+     * @return The cursor to pass when retrieving the next page, or
+     *         <code>null</code> if this is the last page. The cursor shall be
+     *         treated as an opaque string.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
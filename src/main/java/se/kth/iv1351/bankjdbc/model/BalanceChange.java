@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * A change of an account's balance, for example one line of a ledger file.
+ */
+public class BalanceChange {
+    private final String acctNo;
+    private final int amount;
+    private final int lineNo;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param acctNo The number of the account whose balance is changed.
+     * @param amount The amount to add to the balance, a negative amount is
+     *               withdrawn from the balance.
+     * @param lineNo The line in the source file where this change was read, or
+     *               zero if it was not read from a file.
+     */
+    public BalanceChange(String acctNo, int amount, int lineNo) {
+        this.acctNo = acctNo;
+        this.amount = amount;
+        this.lineNo = lineNo;
+    }
+
+    /**
+     * @return The account number.
+     */
+    public String getAccountNo() {
+        return acctNo;
+    }
+
+    /**
+     * @return The amount added to the balance, negative for a withdrawal.
+     */
+    public int getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return The line in the source file, or zero if not read from a file.
+     */
+    public int getLineNo() {
+        return lineNo;
+    }
+
+    /**
+     * @return A string representation of all fields in this object.
+     */
+    @Override
+    public String toString() {
+        StringBuilder stringRepresentation = new StringBuilder();
+        stringRepresentation.append("BalanceChange: [");
+        stringRepresentation.append("line: ");
+        stringRepresentation.append(lineNo);
+        stringRepresentation.append(", account number: ");
+        stringRepresentation.append(acctNo);
+        stringRepresentation.append(", amount: ");
+        stringRepresentation.append(amount);
+        stringRepresentation.append("]");
+        return stringRepresentation.toString();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * The number of accounts in the bank, and the sum of their balances.
+ */
+public class BankTotals {
+    private final long accountCount;
+    private final long totalBalance;
+
+    /**
+     * Creates totals with the specified values.
+     *
+     * @param accountCount The number of accounts.
+     * @param totalBalance The sum of the balances of all accounts.
+     */
+    public BankTotals(long accountCount, long totalBalance) {
+        this.accountCount = accountCount;
+        this.totalBalance = totalBalance;
+    }
+
+    /**
+     * @return The number of accounts.
+     */
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * @return The sum of the balances of all accounts.
+     */
+    public long getTotalBalance() {
+        return totalBalance;
+    }
+}
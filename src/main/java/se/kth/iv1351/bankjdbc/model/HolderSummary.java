@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+/**
+ * The number of accounts a holder has, and the sum of their balances.
+ */
+public class HolderSummary {
+    private final String holderName;
+    private final int accountCount;
+    private final long totalBalance;
+
+    /**
+     * Creates a summary with the specified values.
+     *
+     * @param holderName   The holder's name.
+     * @param accountCount The number of accounts the holder has.
+     * @param totalBalance The sum of the balances of the holder's accounts.
+     */
+    public HolderSummary(String holderName, int accountCount, long totalBalance) {
+        this.holderName = holderName;
+        this.accountCount = accountCount;
+        this.totalBalance = totalBalance;
+    }
+
+    /**
+     * @return The holder's name.
+     */
+    public String getHolderName() {
+        return holderName;
+    }
+
+    /**
+     * @return The number of accounts the holder has.
+     */
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * @return The sum of the balances of the holder's accounts.
+     */
+    public long getTotalBalance() {
+        return totalBalance;
+    }
+}
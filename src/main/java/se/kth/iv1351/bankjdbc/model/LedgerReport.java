@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of applying a ledger file, that is how many balance changes were
+ * applied, and which were rejected and why.
+ */
+public class LedgerReport {
+    private int appliedCount;
+    private final List<String> rejections = new ArrayList<>();
+
+    /**
+     * Records that the specified number of balance changes were applied.
+     *
+     * @param count The number of applied changes.
+     */
+    public void addApplied(int count) {
+        appliedCount += count;
+    }
+
+    /**
+     * Records that a line of the ledger could not be applied.
+     *
+     * @param lineNo The line that was rejected.
+     * @param reason Why the line was rejected.
+     */
+    public void addRejected(int lineNo, String reason) {
+        rejections.add("line " + lineNo + ": " + reason);
+    }
+
+    /**
+     * @return The number of applied balance changes.
+     */
+    public int getAppliedCount() {
+        return appliedCount;
+    }
+
+    /**
+     * @return The number of rejected lines.
+     */
+    public int getRejectedCount() {
+        return rejections.size();
+    }
+
+    /**
+     * @return A description of each rejected line, in the order they were
+     *         rejected.
+     */
+    public List<String> getRejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+}
@@ -24,23 +24,99 @@
 
 package se.kth.iv1351.bankjdbc.startup;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
 import se.kth.iv1351.bankjdbc.controller.Controller;
 import se.kth.iv1351.bankjdbc.integration.BankDBException;
+import se.kth.iv1351.bankjdbc.integration.JournalReader;
+import se.kth.iv1351.bankjdbc.loadtest.LoadGenerator;
+import se.kth.iv1351.bankjdbc.loadtest.LoadTestConfig;
+import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.view.BankServer;
 import se.kth.iv1351.bankjdbc.view.BlockingInterpreter;
 
 /**
  * Starts the bank client.
  */
 public class Main {
+    private static final String LOAD_TEST_MODE = "loadtest";
+    private static final String SERVER_MODE = "server";
+    private static final String REPLAY_MODE = "replay";
+
     /**
-     * @param args There are no command line arguments.
+     * @param args No arguments starts the interactive client, the argument
+     *             <code>loadtest</code> runs a load test configured by the
+     *             <code>loadtest.*</code> system properties, and the argument
+     *             <code>server</code> starts a network server configured by the
+     *             <code>bankserver.*</code> system properties. The arguments
+     *             <code>replay &lt;dir&gt; [file]</code> rebuild the balances
+     *             from the balance journal in <code>dir</code>, without
+     *             connecting to the database, and print them to
+     *             <code>file</code>, or to standard output.
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equalsIgnoreCase(REPLAY_MODE)) {
+            replay(args);
+            return;
+        }
         try {
-        new BlockingInterpreter(new Controller()).handleCmds();
+            Controller ctrl = new Controller();
+            if (args.length > 0 && args[0].equalsIgnoreCase(LOAD_TEST_MODE)) {
+                new LoadGenerator(ctrl, LoadTestConfig.fromSystemProperties()).run(System.out);
+            } else if (args.length > 0 && args[0].equalsIgnoreCase(SERVER_MODE)) {
+                BankServer server = BankServer.fromSystemProperties(ctrl);
+                Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
+                server.serve();
+            } else {
+                new BlockingInterpreter(ctrl).handleCmds();
+            }
         } catch(BankDBException bdbe) {
             System.out.println("Could not connect to Bank db.");
             bdbe.printStackTrace();
+        } catch(AccountException | InterruptedException e) {
+            System.out.println("Load test failed.");
+            e.printStackTrace();
+        } catch(IOException ioe) {
+            System.out.println("Could not start the bank server.");
+            ioe.printStackTrace();
+        }
+    }
+
+    private static void replay(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: replay <journal dir> [output file]");
+            return;
+        }
+        long start = System.nanoTime();
+        JournalReader reader = new JournalReader(Paths.get(args[1]));
+        Map<String, Long> balances;
+        try {
+            balances = new TreeMap<>(reader.rebuildBalances());
+        } catch (BankDBException bdbe) {
+            System.out.println("Could not read the balance journal.");
+            bdbe.printStackTrace();
+            return;
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        try (PrintStream out = args.length > 2 ? new PrintStream(args[2]) : null) {
+            PrintStream balanceOut = out == null ? System.out : out;
+            for (Map.Entry<String, Long> balance : balances.entrySet()) {
+                balanceOut.println(balance.getKey() + "," + balance.getValue());
+            }
+        } catch (IOException ioe) {
+            System.out.println("Could not write the balances.");
+            ioe.printStackTrace();
+            return;
         }
+        double megabytes = reader.getByteCount() / (1024.0 * 1024.0);
+        System.out.printf("Replayed %d records in %d segments, %.1f MB, in %d ms (%.1f MB/s).%n",
+                          reader.getRecordCount(), reader.getSegmentCount(), megabytes,
+                          elapsedMillis, megabytes * 1000 / Math.max(1, elapsedMillis));
+        System.out.printf("Rebuilt the balances of %d accounts, %d corrupt segments.%n",
+                          balances.size(), reader.getCorruptSegmentCount());
     }
 }
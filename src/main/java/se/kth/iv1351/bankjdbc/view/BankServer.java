@@ -0,0 +1,287 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.view;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import se.kth.iv1351.bankjdbc.controller.Controller;
+
+/**
+ * Serves bank clients over TCP. A client sends the same commands as a user of
+ * the console client, one per line, and the replies are the same as those
+ * printed on the console. Each reply is followed by the prompt, which tells the
+ * client that the command is finished.
+ * <p>
+ * Each connection is served by its own <code>BlockingInterpreter</code>, on its
+ * own thread. Running on Java 21 or later, these are virtual threads, so idle
+ * connections cost no platform thread. At most <code>maxConnections</code>
+ * clients are served at the same time, further clients are told that the
+ * server is busy and disconnected. All connections share the same controller,
+ * and its database connection pool. A <code>list</code> of all accounts is
+ * therefore read in chunks, and each chunk's database connection is released
+ * before the chunk is sent, so that slow clients do not keep connections.
+ * <p>
+ * A client may pipeline commands, that is send commands without waiting for
+ * the replies. Up to <code>maxPipelinedCmds</code> consecutive deposits and
+ * withdrawals that have arrived are then performed in one transaction.
+ * <p>
+ * Clients are not authenticated. Therefore the server listens only on the
+ * loopback interface unless told otherwise, and clients can only give the
+ * commands in <code>NETWORK_COMMANDS</code>. Commands that read or write files
+ * on the server, such as <code>ledger</code>, are refused.
+ */
+public class BankServer {
+    /**
+     * The commands that clients of the server may give.
+     */
+    public static final Set<Command> NETWORK_COMMANDS = Collections.unmodifiableSet(EnumSet.of(
+            Command.NEW, Command.LIST, Command.DELETE, Command.DEPOSIT, Command.WITHDRAW,
+            Command.TRANSFER, Command.TOTALS, Command.HOLDERS, Command.TOP, Command.BALANCE,
+            Command.HELP, Command.QUIT));
+    private static final String BUSY_MSG = "Server busy, try again later.";
+    private final Controller ctrl;
+    private final String bindAddress;
+    private final int port;
+    private final int maxConnections;
+    private final int maxPipelinedCmds;
+    private final long shutdownTimeoutMillis;
+    private final Semaphore connectionPermits;
+    private final ExecutorService connectionExecutor = newConnectionExecutor();
+    private final Map<Socket, BlockingInterpreter> connections = new ConcurrentHashMap<>();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a new instance, which does not accept connections until
+     * <code>serve</code> is called.
+     *
+     * @param ctrl                  The controller used by all connections.
+     * @param bindAddress           The address of the interface on which to
+     *                              listen, <code>0.0.0.0</code> means all
+     *                              interfaces.
+     * @param port                  The port on which to listen, zero means any
+     *                              free port.
+     * @param maxConnections        The maximum number of clients served at the
+     *                              same time.
+     * @param shutdownTimeoutMillis How long <code>shutdown</code> waits for
+     *                              commands that are being executed.
+     * @param maxPipelinedCmds      The maximum number of pipelined deposits and
+     *                              withdrawals performed in one transaction.
+     */
+    public BankServer(Controller ctrl, String bindAddress, int port, int maxConnections,
+                      long shutdownTimeoutMillis, int maxPipelinedCmds) {
+        if (maxConnections < 1 || maxPipelinedCmds < 1) {
+            throw new IllegalArgumentException("Illegal server settings, max connections: "
+                                               + maxConnections + ", max pipelined commands: "
+                                               + maxPipelinedCmds);
+        }
+        this.ctrl = ctrl;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.maxPipelinedCmds = maxPipelinedCmds;
+        this.connectionPermits = new Semaphore(maxConnections);
+    }
+
+    /**
+     * Creates a new instance configured by the system properties
+     * <code>bankserver.bindAddress</code>, default the loopback address, which
+     * only accepts connections from the same host,
+     * <code>bankserver.port</code>, default 7878,
+     * <code>bankserver.maxConnections</code>, default 10000,
+     * <code>bankserver.shutdownTimeoutSeconds</code>, default 30, and
+     * <code>bankserver.maxPipelinedCmds</code>, default 100.
+     *
+     * @param ctrl The controller used by all connections.
+     * @return The new server.
+     */
+    public static BankServer fromSystemProperties(Controller ctrl) {
+        return new BankServer(ctrl, System.getProperty("bankserver.bindAddress",
+                                                       InetAddress.getLoopbackAddress()
+                                                                  .getHostAddress()),
+                              Integer.getInteger("bankserver.port", 7878),
+                              Integer.getInteger("bankserver.maxConnections", 10000),
+                              TimeUnit.SECONDS.toMillis(
+                                  Integer.getInteger("bankserver.shutdownTimeoutSeconds", 30)),
+                              Integer.getInteger("bankserver.maxPipelinedCmds", 100));
+    }
+
+    /**
+     * Accepts connections until <code>shutdown</code> is called. This method does
+     * not return until then.
+     *
+     * @throws IOException If unable to listen on the port, or if the bind
+     *                     address is unknown.
+     */
+    public void serve() throws IOException {
+        try (ServerSocket listeningSocket = new ServerSocket()) {
+            listeningSocket.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port));
+            serverSocket = listeningSocket;
+            if (stopped) {
+                return;
+            }
+            System.out.println("Bank server listening on "
+                               + listeningSocket.getInetAddress().getHostAddress()
+                               + ", port " + listeningSocket.getLocalPort()
+                               + ", max connections: " + maxConnections);
+            while (!stopped) {
+                Socket socket;
+                try {
+                    socket = listeningSocket.accept();
+                } catch (SocketException se) {
+                    if (stopped) {
+                        break;
+                    }
+                    throw se;
+                }
+                if (!connectionPermits.tryAcquire()) {
+                    rejectConnection(socket);
+                    continue;
+                }
+                try {
+                    connectionExecutor.execute(() -> serveConnection(socket));
+                } catch (RuntimeException re) {
+                    connectionPermits.release();
+                    closeQuietly(socket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, and lets each connected client's current
+     * command finish before the connection is closed. Connections that are
+     * still executing a command after the shutdown timeout are closed anyway.
+     * This method does not return until all connections are closed.
+     */
+    public void shutdown() {
+        stopped = true;
+        ServerSocket listeningSocket = serverSocket;
+        if (listeningSocket != null) {
+            closeQuietly(listeningSocket);
+        }
+        for (Map.Entry<Socket, BlockingInterpreter> connection : connections.entrySet()) {
+            connection.getValue().stop();
+            try {
+                connection.getKey().shutdownInput();
+            } catch (IOException ignored) {
+            }
+        }
+        connectionExecutor.shutdown();
+        try {
+            if (!connectionExecutor.awaitTermination(shutdownTimeoutMillis,
+                                                     TimeUnit.MILLISECONDS)) {
+                connections.keySet().forEach(BankServer::closeQuietly);
+                connectionExecutor.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            connections.keySet().forEach(BankServer::closeQuietly);
+            connectionExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of clients currently connected.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    private void serveConnection(Socket socket) {
+        try (socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), StandardCharsets.UTF_8)));
+            BlockingInterpreter interpreter = new BlockingInterpreter(ctrl, in, out,
+                                                                  maxPipelinedCmds,
+                                                                  NETWORK_COMMANDS, false);
+            connections.put(socket, interpreter);
+            if (!stopped) {
+                interpreter.handleCmds();
+            }
+            out.flush();
+        } catch (IOException ignored) {
+            // The client disconnected, there is no one to report to.
+        } finally {
+            connections.remove(socket);
+            connectionPermits.release();
+        }
+    }
+
+    private void rejectConnection(Socket socket) {
+        try (socket) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                                                                     StandardCharsets.UTF_8));
+            out.println(BUSY_MSG);
+            out.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Uses a virtual thread per connection if the JVM supports virtual threads,
+     * and a platform thread per connection if not. The factory method is looked
+     * up at runtime, since it does not exist in the Java version the server is
+     * compiled for.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException noVirtualThreads) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
@@ -24,29 +24,133 @@
 
 package se.kth.iv1351.bankjdbc.view;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Set;
 
 import se.kth.iv1351.bankjdbc.controller.Controller;
 import se.kth.iv1351.bankjdbc.model.AccountDTO;
+import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.model.AccountPage;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+import se.kth.iv1351.bankjdbc.model.BankTotals;
+import se.kth.iv1351.bankjdbc.model.HolderSummary;
+import se.kth.iv1351.bankjdbc.model.ImportReport;
+import se.kth.iv1351.bankjdbc.model.LedgerReport;
 
 /**
  * Reads and interprets user commands. This command interpreter is blocking, the user
- * interface does not react to user input while a command is being executed.
+ * interface does not react to user input while a command is being executed. The
+ * commands are read from the console, or from any other reader, for example a
+ * network connection. Each instance serves one user.
+ * <p>
+ * A user may send many commands without waiting for the replies. If pipelining
+ * is enabled, consecutive deposits and withdrawals that have already arrived are
+ * then performed in one transaction. The replies are the same, and are written
+ * in the same order, as if the commands were performed one at a time.
  */
 public class BlockingInterpreter {
     private static final String PROMPT = "> ";
-    private final Scanner console = new Scanner(System.in);
+    private static final int DEFAULT_LEDGER_CHUNK_SIZE = 1000;
+    private static final int DEFAULT_IMPORT_CHUNK_SIZE = 10000;
+    private static final String DEFAULT_EXPORT_FORMAT = "csv";
+    private static final int DEFAULT_TOP_LIMIT = 10;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int LIST_CHUNK_SIZE = 1000;
+    private static final String LIMIT_OPTION = "--limit";
+    private static final String AFTER_OPTION = "--after";
+    private final BufferedReader in;
+    private final PrintWriter out;
+    private final int maxPipelinedCmds;
+    private final Set<Command> allowedCmds;
+    private final boolean streamLists;
     private Controller ctrl;
-    private boolean keepReceivingCmds = false;
+    private volatile boolean keepReceivingCmds = false;
+    private String pendingLine;
 
     /**
-     * Creates a new instance that will use the specified controller for all operations.
+     * Creates a new instance that will use the specified controller for all operations,
+     * and that reads commands from <code>System.in</code>.
      * 
      * @param ctrl The controller used by this instance.
      */
     public BlockingInterpreter(Controller ctrl) {
+        this(ctrl, new BufferedReader(new InputStreamReader(System.in)),
+             new PrintWriter(System.out, true));
+    }
+
+    /**
+     * Creates a new instance that will use the specified controller for all operations,
+     * and that reads commands from the specified reader.
+     * 
+     * @param ctrl The controller used by this instance.
+     * @param in   The reader from which commands are read.
+     * @param out  The writer to which replies are written.
+     */
+    public BlockingInterpreter(Controller ctrl, BufferedReader in, PrintWriter out) {
+        this(ctrl, in, out, 1);
+    }
+
+    /**
+     * Creates a new instance that will use the specified controller for all operations,
+     * reads commands from the specified reader, and performs at most
+     * <code>maxPipelinedCmds</code> consecutive deposits and withdrawals in one
+     * transaction.
+     * 
+     * @param ctrl             The controller used by this instance.
+     * @param in               The reader from which commands are read.
+     * @param out              The writer to which replies are written.
+     * @param maxPipelinedCmds The maximum number of deposits and withdrawals
+     *                         performed in one transaction, one means that
+     *                         pipelined commands are performed one at a time.
+     */
+    public BlockingInterpreter(Controller ctrl, BufferedReader in, PrintWriter out,
+                               int maxPipelinedCmds) {
+        this(ctrl, in, out, maxPipelinedCmds, EnumSet.allOf(Command.class), true);
+    }
+
+    /**
+     * Creates a new instance that will use the specified controller for all operations,
+     * reads commands from the specified reader, performs at most
+     * <code>maxPipelinedCmds</code> consecutive deposits and withdrawals in one
+     * transaction, and refuses all commands that are not in
+     * <code>allowedCmds</code>. If <code>streamLists</code> is
+     * <code>false</code>, the <code>list</code> command reads all accounts in
+     * chunks, and each chunk is read, and its database connection released,
+     * before it is written. That is needed when the writer may block for long,
+     * for example when writing to a slow network client, since a streamed list
+     * keeps a database connection until the last account is written.
+     * 
+     * @param ctrl             The controller used by this instance.
+     * @param in               The reader from which commands are read.
+     * @param out              The writer to which replies are written.
+     * @param maxPipelinedCmds The maximum number of deposits and withdrawals
+     *                         performed in one transaction, one means that
+     *                         pipelined commands are performed one at a time.
+     * @param allowedCmds      The commands that are performed, all other
+     *                         commands are refused.
+     * @param streamLists      <code>true</code> if all accounts are listed
+     *                         through one database cursor, <code>false</code>
+     *                         if they are listed in chunks.
+     */
+    public BlockingInterpreter(Controller ctrl, BufferedReader in, PrintWriter out,
+                               int maxPipelinedCmds, Set<Command> allowedCmds,
+                               boolean streamLists) {
+        if (maxPipelinedCmds < 1) {
+            throw new IllegalArgumentException("Illegal max pipelined commands: "
+                                               + maxPipelinedCmds);
+        }
         this.ctrl = ctrl;
+        this.in = in;
+        this.out = out;
+        this.maxPipelinedCmds = maxPipelinedCmds;
+        this.allowedCmds = allowedCmds;
+        this.streamLists = streamLists;
     }
 
     /**
@@ -59,20 +163,36 @@ public class BlockingInterpreter {
     /**
      * Interprets and performs user commands. This method will not return until the
      * UI has been stopped. The UI is stopped either when the user gives the
-     * "quit" command, or when the method <code>stop()</code> is called.
+     * "quit" command, when there is no more input, or when the method
+     * <code>stop()</code> is called. A command that is being executed when
+     * <code>stop()</code> is called is completed, and its reply is written.
      */
     public void handleCmds() {
         keepReceivingCmds = true;
         while (keepReceivingCmds) {
             try {
-                CmdLine cmdLine = new CmdLine(readNextLine());
+                String line = readNextLine();
+                if (line == null) {
+                    break;
+                }
+                CmdLine cmdLine = new CmdLine(line);
+                if (cmdLine.getCmd() != Command.ILLEGAL_COMMAND
+                    && !allowedCmds.contains(cmdLine.getCmd())) {
+                    out.println("command not allowed: " + cmdLine.getCmd().toString().toLowerCase());
+                    continue;
+                }
+                if (maxPipelinedCmds > 1 && toBalanceChange(cmdLine) != null && inputReady()) {
+                    performPipelinedBalanceChanges(cmdLine);
+                    continue;
+                }
                 switch (cmdLine.getCmd()) {
                     case HELP:
                         for (Command command : Command.values()) {
-                            if (command == Command.ILLEGAL_COMMAND) {
+                            if (command == Command.ILLEGAL_COMMAND
+                                || !allowedCmds.contains(command)) {
                                 continue;
                             }
-                            System.out.println(command.toString().toLowerCase());
+                            out.println(command.toString().toLowerCase());
                         }
                         break;
                     case QUIT:
@@ -85,17 +205,7 @@ public class BlockingInterpreter {
                         ctrl.deleteAccount(cmdLine.getParameter(0));
                         break;
                     case LIST:
-                        List<? extends AccountDTO> accounts = null;
-                        if (cmdLine.getParameter(0).equals("")) {
-                            accounts = ctrl.getAllAccounts();
-                        } else {
-                            accounts = ctrl.getAccountsForHolder(cmdLine.getParameter(0));
-                        }
-                        for (AccountDTO account : accounts) {
-                            System.out.println("acct no: " + account.getAccountNo() + ", "
-                                             + "holder: " + account.getHolderName() + ", "
-                                             + "balance: " + account.getBalance());
-                        }
+                        listAccounts(cmdLine);
                         break;
                     case DEPOSIT:
                         ctrl.deposit(cmdLine.getParameter(0), 
@@ -105,27 +215,226 @@ public class BlockingInterpreter {
                         ctrl.withdraw(cmdLine.getParameter(0), 
                                       Integer.parseInt(cmdLine.getParameter(1)));
                         break;
+                    case TRANSFER:
+                        ctrl.transfer(cmdLine.getParameter(0), cmdLine.getParameter(1),
+                                      Integer.parseInt(cmdLine.getParameter(2)));
+                        break;
+                    case LEDGER:
+                        int chunkSize = DEFAULT_LEDGER_CHUNK_SIZE;
+                        if (cmdLine.getParameter(1) != null) {
+                            chunkSize = Integer.parseInt(cmdLine.getParameter(1));
+                        }
+                        LedgerReport report = ctrl.applyLedger(cmdLine.getParameter(0), chunkSize);
+                        for (String rejection : report.getRejections()) {
+                            out.println("rejected " + rejection);
+                        }
+                        out.println("applied: " + report.getAppliedCount() + ", "
+                                         + "rejected: " + report.getRejectedCount());
+                        break;
+                    case IMPORT:
+                        int importChunkSize = DEFAULT_IMPORT_CHUNK_SIZE;
+                        if (cmdLine.getParameter(1) != null) {
+                            importChunkSize = Integer.parseInt(cmdLine.getParameter(1));
+                        }
+                        ImportReport importReport = ctrl.importAccounts(cmdLine.getParameter(0),
+                                                                        importChunkSize);
+                        for (String rejection : importReport.getRejections()) {
+                            out.println("rejected " + rejection);
+                        }
+                        out.println("imported: " + importReport.getImportedCount() + ", "
+                                    + "rejected: " + importReport.getRejectedCount());
+                        break;
+                    case EXPORT:
+                        String format = DEFAULT_EXPORT_FORMAT;
+                        if (cmdLine.getParameter(1) != null) {
+                            format = cmdLine.getParameter(1);
+                        }
+                        out.println("exported: "
+                                    + ctrl.exportAccounts(cmdLine.getParameter(0), format));
+                        break;
+                    case TOTALS:
+                        BankTotals totals = ctrl.getTotals();
+                        out.println("accounts: " + totals.getAccountCount() + ", "
+                                    + "total balance: " + totals.getTotalBalance());
+                        break;
+                    case HOLDERS:
+                        for (HolderSummary summary : ctrl.getHolderSummaries(topLimit(cmdLine))) {
+                            out.println("holder: " + summary.getHolderName() + ", "
+                                        + "accounts: " + summary.getAccountCount() + ", "
+                                        + "total balance: " + summary.getTotalBalance());
+                        }
+                        break;
+                    case TOP:
+                        for (AccountDTO account : ctrl.getTopAccounts(topLimit(cmdLine))) {
+                            printAccount(account);
+                        }
+                        break;
                     case BALANCE:
                         AccountDTO acct = ctrl.getAccount(cmdLine.getParameter(0));
                         if (acct != null) {
-                            System.out.println(acct.getBalance());
+                            out.println(acct.getBalance());
                         } else {
-                            System.out.println("No such account");
+                            out.println("No such account");
                         }
                         break;
                     default:
-                        System.out.println("illegal command");
+                        out.println("illegal command");
                 }
             } catch (Exception e) {
-                System.out.println("Operation failed");
-                System.out.println(e.getMessage());
-                e.printStackTrace();
+                reportFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Performs the specified deposit or withdrawal together with the directly
+     * following deposits and withdrawals that have already arrived, and writes one
+     * reply per command.
+     */
+    private void performPipelinedBalanceChanges(CmdLine first) throws IOException {
+        List<BalanceChange> changes = new ArrayList<>();
+        changes.add(toBalanceChange(first));
+        while (changes.size() < maxPipelinedCmds && inputReady()) {
+            String line = in.readLine();
+            if (line == null) {
+                break;
+            }
+            BalanceChange change = toBalanceChange(new CmdLine(line));
+            if (change == null) {
+                pendingLine = line;
+                break;
+            }
+            changes.add(change);
+        }
+
+        Exception[] failures = ctrl.applyBalanceChanges(changes);
+        for (int i = 0; i < failures.length; i++) {
+            if (i > 0) {
+                out.print(PROMPT);
+            }
+            if (failures[i] != null) {
+                reportFailure(failures[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the balance change made by the specified command, or
+     * <code>null</code> if it is not a well-formed deposit or withdrawal. Malformed
+     * commands are never pipelined, so that they fail exactly as they would
+     * without pipelining.
+     */
+    private BalanceChange toBalanceChange(CmdLine cmdLine) {
+        Command cmd = cmdLine.getCmd();
+        if ((cmd != Command.DEPOSIT && cmd != Command.WITHDRAW) || !allowedCmds.contains(cmd)
+            || cmdLine.getParameter(0) == null || cmdLine.getParameter(1) == null) {
+            return null;
+        }
+        int amount;
+        try {
+            amount = Integer.parseInt(cmdLine.getParameter(1));
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        if (amount < 0) {
+            return null;
+        }
+        return new BalanceChange(cmdLine.getParameter(0),
+                                 cmd == Command.DEPOSIT ? amount : -amount, 0);
+    }
+
+    private boolean inputReady() {
+        try {
+            return in.ready();
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    private void reportFailure(Exception e) {
+        out.println("Operation failed");
+        out.println(e.getMessage());
+        e.printStackTrace();
+    }
+
+    private void listAccounts(CmdLine cmdLine) throws AccountException {
+        String holderName = null;
+        int pageSize = DEFAULT_PAGE_SIZE;
+        String after = null;
+        boolean paged = false;
+        for (int i = 0; cmdLine.getParameter(i) != null; i++) {
+            String param = cmdLine.getParameter(i);
+            if (param.equals(LIMIT_OPTION)) {
+                pageSize = Integer.parseInt(cmdLine.getParameter(++i));
+                paged = true;
+            } else if (param.equals(AFTER_OPTION)) {
+                after = cmdLine.getParameter(++i);
+                paged = true;
+            } else if (!param.equals("")) {
+                holderName = param;
+            }
+        }
+
+        if (paged) {
+            AccountPage page = ctrl.getAccountsForHolderPage(holderName, pageSize, after);
+            for (AccountDTO account : page.getAccounts()) {
+                printAccount(account);
+            }
+            if (page.getNextCursor() != null) {
+                out.println("next page: " + AFTER_OPTION + " " + page.getNextCursor());
+            }
+        } else if (holderName == null && streamLists) {
+            ctrl.forEachAccount(this::printAccount);
+        } else if (holderName == null) {
+            String nextChunk = null;
+            do {
+                AccountPage chunk = ctrl.getAccountsPage(LIST_CHUNK_SIZE, nextChunk);
+                for (AccountDTO account : chunk.getAccounts()) {
+                    printAccount(account);
+                }
+                nextChunk = chunk.getNextCursor();
+            } while (nextChunk != null);
+        } else {
+            for (AccountDTO account : ctrl.getAccountsForHolder(holderName)) {
+                printAccount(account);
             }
         }
     }
 
+    private int topLimit(CmdLine cmdLine) {
+        String limit = cmdLine.getParameter(0);
+        if (limit == null || limit.equals("")) {
+            return DEFAULT_TOP_LIMIT;
+        }
+        return Integer.parseInt(limit);
+    }
+
+    private void printAccount(AccountDTO account) {
+        out.println("acct no: " + account.getAccountNo() + ", "
+                         + "holder: " + account.getHolderName() + ", "
+                         + "balance: " + account.getBalance());
+    }
+
+    /**
+     * Returns <code>null</code> if there is no more input. A broken connection is
+     * treated the same way, since no more commands can be read from it. Replies
+     * are flushed only when no more commands have arrived, so that the replies
+     * to pipelined commands are sent together.
+     */
     private String readNextLine() {
-        System.out.print(PROMPT);
-        return console.nextLine();
+        out.print(PROMPT);
+        if (pendingLine != null) {
+            String line = pendingLine;
+            pendingLine = null;
+            return line;
+        }
+        if (!inputReady()) {
+            out.flush();
+        }
+        try {
+            return in.readLine();
+        } catch (IOException ioe) {
+            return null;
+        }
     }
 }
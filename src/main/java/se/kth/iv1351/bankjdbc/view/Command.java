@@ -48,6 +48,34 @@ public enum Command {
      * Withdraws the specified amount from the specified account
      */
     WITHDRAW,
+    /**
+     * Transfers the specified amount from the first to the second specified account
+     */
+    TRANSFER,
+    /**
+     * Applies all deposits and withdrawals in the specified ledger file
+     */
+    LEDGER,
+    /**
+     * Creates all accounts in the specified account file
+     */
+    IMPORT,
+    /**
+     * Writes all accounts to the specified file
+     */
+    EXPORT,
+    /**
+     * Lists the number of accounts and the sum of all balances.
+     */
+    TOTALS,
+    /**
+     * Lists the holders whose accounts have the highest sums of balances.
+     */
+    HOLDERS,
+    /**
+     * Lists the accounts with the highest balances.
+     */
+    TOP,
     /**
      * Lists the balance of the specified account.
      */
@@ -1,10 +1,10 @@
-CREATE TABLE "holder"
+CREATE TABLE IF NOT EXISTS "holder"
 (
   "holder_id" SERIAL PRIMARY KEY,
   "name" VARCHAR(100) UNIQUE NOT NULL
 );
 
-CREATE TABLE "account"
+CREATE TABLE IF NOT EXISTS "account"
 (
   "account_id" SERIAL PRIMARY KEY, -- This is the PK, which is the database id.
   "account_no" VARCHAR(10), -- This is the account number, which is the business id.
@@ -0,0 +1,6 @@
+-- account_no is the business id, it is used to find single accounts.
+ALTER TABLE "account" ALTER COLUMN "account_no" SET NOT NULL;
+CREATE UNIQUE INDEX IF NOT EXISTS "account_account_no_idx" ON "account" ("account_no");
+
+-- Used by the holder join, and to list a holder's accounts page by page.
+CREATE INDEX IF NOT EXISTS "account_holder_id_idx" ON "account" ("holder_id", "account_id");
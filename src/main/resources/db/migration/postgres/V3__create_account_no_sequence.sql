@@ -0,0 +1,2 @@
+-- Each value is a block of account numbers, see HiLoAccountNoAllocator.
+CREATE SEQUENCE IF NOT EXISTS "account_no_seq" START WITH 1000;
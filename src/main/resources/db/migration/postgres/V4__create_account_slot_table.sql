@@ -0,0 +1,10 @@
+-- The balance of a hot account is spread over slot rows, to which deposits are
+-- made without locking the account row, see BankDAO. An account's balance is
+-- the sum of account.balance and the balances of its slots.
+CREATE TABLE IF NOT EXISTS "account_slot"
+(
+  "account_id" INT NOT NULL REFERENCES "account" ON DELETE CASCADE,
+  "slot" INT NOT NULL,
+  "balance" INT NOT NULL,
+  PRIMARY KEY ("account_id", "slot")
+);
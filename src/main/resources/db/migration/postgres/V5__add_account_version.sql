@@ -0,0 +1,3 @@
+-- Incremented by every update of an account row, used by optimistic
+-- transfers to detect concurrent updates, see Controller.
+ALTER TABLE "account" ADD COLUMN IF NOT EXISTS "version" BIGINT NOT NULL DEFAULT 0;
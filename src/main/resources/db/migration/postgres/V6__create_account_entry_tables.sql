@@ -0,0 +1,22 @@
+-- In ledger mode, deposits and withdrawals are appended to account_entry
+-- instead of updating account.balance, see BankDAO. An account's balance is
+-- the sum of account.balance, the balances of its slots and the amounts of its
+-- entries. Compaction adds entries to account.balance and moves them to
+-- account_entry_history.
+CREATE TABLE IF NOT EXISTS "account_entry"
+(
+  "entry_id" BIGSERIAL PRIMARY KEY,
+  "account_id" INT NOT NULL REFERENCES "account" ON DELETE CASCADE,
+  "amount" INT NOT NULL,
+  "created_at" TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS "account_entry_account_id_idx" ON "account_entry" ("account_id");
+
+CREATE TABLE IF NOT EXISTS "account_entry_history"
+(
+  "entry_id" BIGINT PRIMARY KEY,
+  "account_id" INT NOT NULL REFERENCES "account" ON DELETE CASCADE,
+  "amount" INT NOT NULL,
+  "created_at" TIMESTAMP NOT NULL
+);
@@ -0,0 +1,3 @@
+-- Used to find the accounts with the highest balances, and to sum all balances
+-- without reading the account rows.
+CREATE INDEX IF NOT EXISTS "account_balance_idx" ON "account" ("balance");
@@ -0,0 +1,5 @@
+-- account_balance_idx made every balance change update an indexed column, so
+-- no deposit, withdrawal, transfer or compaction could be a HOT update, and
+-- each one also wrote entries in all account indexes. Totals and top-N
+-- balances scan the account table instead.
+DROP INDEX IF EXISTS "account_balance_idx";
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import se.kth.iv1351.bankjdbc.integration.InMemoryBankStorage;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+import se.kth.iv1351.bankjdbc.model.LedgerReport;
+import se.kth.iv1351.bankjdbc.model.RejectedException;
+
+/**
+ * Tests the controller with accounts stored in memory.
+ */
+class ControllerTest {
+    @TempDir
+    Path tempDir;
+    private Controller ctrl;
+
+    @BeforeEach
+    void createController() throws Exception {
+        ctrl = new Controller(new InMemoryBankStorage(null));
+    }
+
+    @Test
+    void rejectsLedgerNetChangeThatDoesNotFitInInt() throws Exception {
+        String acctNo = createAccount("alice", 0);
+        String otherAcctNo = createAccount("bob", 0);
+        Path ledger = writeLedger("deposit " + acctNo + " 2000000000",
+                                  "deposit " + acctNo + " 2000000000",
+                                  "deposit " + otherAcctNo + " 10");
+
+        LedgerReport report = ctrl.applyLedger(ledger.toString(), 10);
+
+        assertEquals(1, report.getAppliedCount());
+        assertEquals(2, report.getRejectedCount());
+        assertTrue(report.getRejections().get(0).contains("net change out of range"),
+                   report.getRejections().toString());
+        assertEquals(0, ctrl.getAccount(acctNo).getBalance());
+        assertEquals(10, ctrl.getAccount(otherAcctNo).getBalance());
+    }
+
+    @Test
+    void netsLedgerChangesWithinChunk() throws Exception {
+        String acctNo = createAccount("alice", 50);
+        Path ledger = writeLedger("withdraw " + acctNo + " 100", "deposit " + acctNo + " 100");
+
+        LedgerReport report = ctrl.applyLedger(ledger.toString(), 10);
+
+        assertEquals(2, report.getAppliedCount());
+        assertEquals(50, ctrl.getAccount(acctNo).getBalance());
+    }
+
+    @Test
+    void appliesBatchedChangesInBatchOrder() throws Exception {
+        String acctNo = createAccount("alice", 50);
+
+        Exception[] failures = ctrl.applyBalanceChanges(List.of(
+                new BalanceChange(acctNo, -100, 0), new BalanceChange(acctNo, 100, 0)));
+
+        assertInstanceOf(RejectedException.class, failures[0]);
+        assertNull(failures[1]);
+        assertEquals(150, ctrl.getAccount(acctNo).getBalance());
+    }
+
+    @Test
+    void appliesBatchedChangesToEachAccountInItsOwnOrder() throws Exception {
+        String acctNo = createAccount("alice", 0);
+        String otherAcctNo = createAccount("bob", 0);
+
+        Exception[] failures = ctrl.applyBalanceChanges(List.of(
+                new BalanceChange(otherAcctNo, 30, 0), new BalanceChange(acctNo, 20, 0),
+                new BalanceChange(otherAcctNo, -30, 0), new BalanceChange(acctNo, -30, 0)));
+
+        assertNull(failures[0]);
+        assertNull(failures[1]);
+        assertNull(failures[2]);
+        assertInstanceOf(RejectedException.class, failures[3]);
+        assertEquals(20, ctrl.getAccount(acctNo).getBalance());
+        assertEquals(0, ctrl.getAccount(otherAcctNo).getBalance());
+    }
+
+    private String createAccount(String holderName, int balance) throws Exception {
+        ctrl.createAccount(holderName);
+        String acctNo = ctrl.getAccountsForHolder(holderName).get(0).getAccountNo();
+        if (balance > 0) {
+            ctrl.deposit(acctNo, balance);
+        }
+        return acctNo;
+    }
+
+    private Path writeLedger(String... lines) throws IOException {
+        return Files.write(tempDir.resolve("ledger.txt"), List.of(lines));
+    }
+}
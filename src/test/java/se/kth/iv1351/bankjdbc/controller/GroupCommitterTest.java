@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.controller;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import se.kth.iv1351.bankjdbc.model.AccountException;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+
+class GroupCommitterTest {
+    @Test
+    void appliesNextGroupAfterErrorInGroup() {
+        AtomicInteger groups = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(changes -> {
+            if (groups.getAndIncrement() == 0) {
+                throw new AssertionError("Failed to apply the group.");
+            }
+            return new Exception[changes.size()];
+        }, 0, 1);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Exception failure = committer.apply(new BalanceChange("1", 10, 0));
+            assertInstanceOf(AccountException.class, failure);
+            assertInstanceOf(AssertionError.class, failure.getCause());
+            assertNull(committer.apply(new BalanceChange("1", 10, 0)));
+        });
+    }
+
+    @Test
+    void appliesNextGroupAfterExceptionInGroup() {
+        AtomicInteger groups = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(changes -> {
+            if (groups.getAndIncrement() == 0) {
+                throw new IllegalStateException("Failed to apply the group.");
+            }
+            return new Exception[changes.size()];
+        }, 0, 1);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertInstanceOf(AccountException.class,
+                             committer.apply(new BalanceChange("1", 10, 0)));
+            assertNull(committer.apply(new BalanceChange("1", 10, 0)));
+        });
+    }
+}
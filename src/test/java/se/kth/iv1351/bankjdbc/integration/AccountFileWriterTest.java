@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AccountFileWriterTest {
+    @TempDir
+    Path tempDir;
+    private Path exportDir;
+
+    @BeforeEach
+    void setExportDir() throws Exception {
+        exportDir = Files.createDirectory(tempDir.resolve("export"));
+        System.setProperty("bankdb.export.dir", exportDir.toString());
+    }
+
+    @AfterEach
+    void clearExportDir() {
+        System.clearProperty("bankdb.export.dir");
+    }
+
+    @Test
+    void writesCsvFileInExportDirectory() throws Exception {
+        try (AccountFileWriter writer = new AccountFileWriter("accounts.csv",
+                                                              AccountFileWriter.Format.CSV)) {
+            writer.write("10000016", "Smith, Anna", 300);
+            writer.write("10000024", "bob", 0);
+        }
+
+        assertEquals(List.of("account_no,holder_name,balance", "10000016,\"Smith, Anna\",300",
+                             "10000024,bob,0"),
+                     Files.readAllLines(exportDir.resolve("accounts.csv"),
+                                        StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void rejectsFileOutsideExportDirectory() {
+        assertThrows(BankDBException.class,
+                     () -> new AccountFileWriter("../escaped.csv", AccountFileWriter.Format.CSV));
+        assertFalse(Files.exists(tempDir.resolve("escaped.csv")));
+    }
+
+    @Test
+    void rejectsAbsolutePathOutsideExportDirectory() {
+        Path outside = tempDir.resolve("absolute.csv");
+
+        assertThrows(BankDBException.class,
+                     () -> new AccountFileWriter(outside.toString(), AccountFileWriter.Format.CSV));
+        assertFalse(Files.exists(outside));
+    }
+
+    @Test
+    void rejectsSymbolicLinkOutOfExportDirectory() throws Exception {
+        Path outsideDir = Files.createDirectory(tempDir.resolve("outside"));
+        Files.createSymbolicLink(exportDir.resolve("link"), outsideDir);
+
+        assertThrows(BankDBException.class,
+                     () -> new AccountFileWriter("link/accounts.csv",
+                                                 AccountFileWriter.Format.CSV));
+        assertFalse(Files.exists(outsideDir.resolve("accounts.csv")));
+    }
+
+    @Test
+    void doesNotReplaceExistingFile() throws Exception {
+        Path existing = Files.writeString(exportDir.resolve("accounts.csv"), "keep");
+
+        assertThrows(BankDBException.class,
+                     () -> new AccountFileWriter("accounts.csv", AccountFileWriter.Format.CSV));
+        assertEquals("keep", Files.readString(existing));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import se.kth.iv1351.bankjdbc.model.Account;
+import se.kth.iv1351.bankjdbc.model.BalanceChange;
+
+class BalanceJournalTest {
+    private static final int SEGMENT_BYTES = 4096;
+    @TempDir
+    Path journalDir;
+
+    @Test
+    void readsRecordsInOrderTheyWereAppended() throws Exception {
+        try (BalanceJournal journal = new BalanceJournal(journalDir, SEGMENT_BYTES, 0)) {
+            journal.append(List.of(change("10000016", 500, 500), change("10000024", 70, 70)));
+            journal.append(List.of(deletion("10000016")));
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        new JournalReader(journalDir).forEach(records::add);
+
+        assertEquals(3, records.size());
+        assertEquals("10000024", records.get(1).getAccountNo());
+        assertEquals(70, records.get(1).getDelta());
+        assertEquals(JournalRecord.Type.BALANCE_CHANGE, records.get(1).getType());
+        assertEquals(JournalRecord.Type.ACCOUNT_DELETION, records.get(2).getType());
+    }
+
+    @Test
+    void startsNewSegmentWhenSegmentIsFull() throws Exception {
+        try (BalanceJournal journal = new BalanceJournal(journalDir, SEGMENT_BYTES, 0)) {
+            for (int i = 0; i < 200; i++) {
+                journal.append(List.of(change("10000016", 1, JournalRecord.UNKNOWN_BALANCE)));
+            }
+        }
+
+        JournalReader reader = new JournalReader(journalDir);
+        Map<String, Long> balances = reader.rebuildBalances();
+
+        assertEquals(200L, balances.get("10000016"));
+        assertEquals(200, reader.getRecordCount());
+        assertEquals(0, reader.getCorruptSegmentCount());
+        assertTrue(reader.getSegmentCount() > 1);
+    }
+
+    @Test
+    void replayLeavesOutDeletedAccounts() throws Exception {
+        List<String> acctNos;
+        try (BalanceJournal journal = new BalanceJournal(journalDir, SEGMENT_BYTES, 0)) {
+            InMemoryBankStorage storage = new InMemoryBankStorage(journal);
+            acctNos = storage.createAccounts(List.of(new Account("alice", 100),
+                                                     new Account("bob", 0)));
+            storage.addToBalances(List.of(new BalanceChange(acctNos.get(0), -30, 0),
+                                          new BalanceChange(acctNos.get(1), 30, 0)));
+            storage.deleteAccount(acctNos.get(0));
+        }
+
+        Map<String, Long> balances = new JournalReader(journalDir).rebuildBalances();
+
+        assertEquals(Map.of(acctNos.get(1), 30L), balances);
+    }
+
+    @Test
+    void changeIsNotMadeIfItCanNotBeJournaled() throws Exception {
+        BalanceJournal journal = new BalanceJournal(journalDir, SEGMENT_BYTES, 0);
+        InMemoryBankStorage storage = new InMemoryBankStorage(journal);
+        String acctNo = storage.createAccounts(List.of(new Account("alice", 100))).get(0);
+        journal.close();
+
+        assertThrows(BankDBException.class, () -> storage.addToBalance(acctNo, 10));
+        assertThrows(BankDBException.class, () -> storage.deleteAccount(acctNo));
+        assertEquals(100, storage.findAccountByAcctNo(acctNo, false).getBalance());
+    }
+
+    private static JournalRecord change(String acctNo, int delta, long balance) {
+        return new JournalRecord(JournalRecord.Type.BALANCE_CHANGE, acctNo, delta, balance,
+                                 System.currentTimeMillis());
+    }
+
+    private static JournalRecord deletion(String acctNo) {
+        return new JournalRecord(JournalRecord.Type.ACCOUNT_DELETION, acctNo, 0,
+                                 JournalRecord.UNKNOWN_BALANCE, System.currentTimeMillis());
+    }
+}
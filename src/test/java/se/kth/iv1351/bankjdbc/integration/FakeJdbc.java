@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Fake JDBC objects, which implement only the calls made by the tested code.
+ * Any other call fails with <code>UnsupportedOperationException</code>.
+ */
+final class FakeJdbc {
+    private FakeJdbc() {
+    }
+
+    /**
+     * Returns a connection whose queries all return one row with one long
+     * column, taken from the specified supplier.
+     */
+    static Connection sequenceConnection(LongSupplier nextValue) {
+        return proxy(Connection.class, (method, args) -> {
+            if (method.equals("createStatement")) {
+                return proxy(Statement.class, (stmtMethod, stmtArgs) -> {
+                    switch (stmtMethod) {
+                        case "executeQuery":
+                            return singleLongResult(nextValue.getAsLong());
+                        case "close":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(stmtMethod);
+                    }
+                });
+            }
+            throw new UnsupportedOperationException(method);
+        });
+    }
+
+    /**
+     * Returns a connection that prepares <code>FakeStatement</code>s, and adds
+     * each of them to the specified list.
+     */
+    static Connection statementConnection(List<FakeStatement> prepared) {
+        return proxy(Connection.class, (method, args) -> {
+            switch (method) {
+                case "prepareStatement":
+                    FakeStatement stmt = new FakeStatement((String) args[0]);
+                    prepared.add(stmt);
+                    return stmt.statement;
+                case "commit":
+                case "rollback":
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    /**
+     * A prepared statement that remembers whether it was closed.
+     */
+    static final class FakeStatement {
+        final String sql;
+        final PreparedStatement statement;
+        boolean closed;
+
+        private FakeStatement(String sql) {
+            this.sql = sql;
+            this.statement = proxy(PreparedStatement.class, (method, args) -> {
+                switch (method) {
+                    case "close":
+                        closed = true;
+                        return null;
+                    case "isClosed":
+                        return closed;
+                    default:
+                        throw new UnsupportedOperationException(method);
+                }
+            });
+        }
+    }
+
+    private static ResultSet singleLongResult(long value) {
+        boolean[] read = new boolean[1];
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+                case "next":
+                    boolean hasRow = !read[0];
+                    read[0] = true;
+                    return hasRow;
+                case "getLong":
+                    return value;
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(),
+                                                new Class<?>[] {type},
+                                                (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "@" + System.identityHashCode(proxy);
+                default:
+                    return handler.invoke(method.getName(), args);
+            }
+        }));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import se.kth.iv1351.bankjdbc.model.AccountNumberFormat;
+
+class HiLoAccountNoAllocatorTest {
+    @Test
+    void allocatesBlockFromSequence() throws Exception {
+        AtomicLong sequence = new AtomicLong(42);
+        Connection connection = FakeJdbc.sequenceConnection(sequence::getAndIncrement);
+        HiLoAccountNoAllocator allocator = new HiLoAccountNoAllocator();
+
+        assertEquals(AccountNumberFormat.withCheckDigit(42000),
+                     allocator.nextAccountNo(connection));
+        for (int i = 1; i < 1000; i++) {
+            allocator.nextAccountNo(connection);
+        }
+        assertEquals(43, sequence.get());
+        assertEquals(AccountNumberFormat.withCheckDigit(43000),
+                     allocator.nextAccountNo(connection));
+    }
+
+    @Test
+    void throwsSQLExceptionWhenNumbersRunOut() throws Exception {
+        Connection connection = FakeJdbc.sequenceConnection(() -> 999_999);
+        HiLoAccountNoAllocator allocator = new HiLoAccountNoAllocator();
+        for (int i = 0; i < 1000; i++) {
+            allocator.nextAccountNo(connection);
+        }
+
+        Connection exhausted = FakeJdbc.sequenceConnection(() -> 1_000_000);
+        assertThrows(SQLException.class, () -> allocator.nextAccountNo(exhausted));
+    }
+}
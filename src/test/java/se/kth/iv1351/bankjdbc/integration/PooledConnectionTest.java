@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package se.kth.iv1351.bankjdbc.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import se.kth.iv1351.bankjdbc.integration.FakeJdbc.FakeStatement;
+
+class PooledConnectionTest {
+    private final List<FakeStatement> prepared = new ArrayList<>();
+
+    @Test
+    void reusesCachedStatement() throws Exception {
+        PooledConnection conn = new PooledConnection(FakeJdbc.statementConnection(prepared), 2);
+
+        PreparedStatement stmt = conn.prepareStatement("SELECT 1");
+        conn.commit();
+
+        assertSame(stmt, conn.prepareStatement("SELECT 1"));
+        assertEquals(1, prepared.size());
+    }
+
+    @Test
+    void doesNotEvictStatementsBorrowedInTransaction() throws Exception {
+        PooledConnection conn = new PooledConnection(FakeJdbc.statementConnection(prepared), 1);
+
+        conn.prepareStatement("SELECT 1");
+        conn.prepareStatement("SELECT 2");
+        conn.prepareStatement("SELECT 3");
+
+        assertFalse(prepared.get(0).closed);
+        assertFalse(prepared.get(1).closed);
+        assertFalse(prepared.get(2).closed);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedStatementsWhenTransactionEnds() throws Exception {
+        PooledConnection conn = new PooledConnection(FakeJdbc.statementConnection(prepared), 1);
+
+        conn.prepareStatement("SELECT 1");
+        conn.prepareStatement("SELECT 2");
+        conn.commit();
+
+        assertTrue(prepared.get(0).closed);
+        assertFalse(prepared.get(1).closed);
+
+        conn.prepareStatement("SELECT 3");
+        conn.rollback();
+
+        assertTrue(prepared.get(1).closed);
+        assertFalse(prepared.get(2).closed);
+    }
+}